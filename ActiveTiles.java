@@ -0,0 +1,89 @@
+import java.util.Arrays;
+
+// Tracks which T x T tiles of the interior hold anything: a tile is hot when some cell's density
+// or velocity component exceeds the threshold in magnitude. Advection gathers: a cell takes what
+// lies its own speed times dt0 upstream, however fast the flow in the hot tiles is. So the hot set
+// is dilated by the CFL distance of the fastest cell outside it (measured each update, at most
+// threshold * dt0 cells; the flow in the plume itself often crosses the grid in one step), rounded
+// up to tiles, plus one tile for the reach of the diffusion stencil, and turned into per-row runs
+// of active columns. Advection, diffusion and the Gauss-Seidel solvers iterate those runs instead
+// of whole rows; idle cells keep their values. Projection stays dense (see FluidEngine.project).
+final class ActiveTiles {
+    static final int T = 16;
+    // keeps Headless --verify within its 1e-2 from 256^2 to 1024^2 (multigrid's pressure at 512^2,
+    // whose steep plume amplifies any velocity change into density, is the tightest case)
+    static final float DEFAULT_THRESHOLD = 5e-5f;
+
+    final int NX, NY, tx, ty;
+    final float threshold;
+    int count;                          // active tiles after the last update
+
+    private final boolean[] hot, on, tmp;
+    private final float[] speed;        // per tile: largest velocity component magnitude
+    private final int[][] active, idle; // per tile row: [i0, i1) pairs of cell columns
+
+    ActiveTiles(int NX,int NY,float threshold){
+        this.NX = NX; this.NY = NY; this.threshold = threshold;
+        tx = (NX+T-1)/T; ty = (NY+T-1)/T;
+        hot = new boolean[tx*ty]; on = new boolean[tx*ty]; tmp = new boolean[tx*ty];
+        speed = new float[tx*ty];
+        active = new int[ty][]; idle = new int[ty][];
+    }
+
+    int[] runs(int j){ return active[(j-1)/T]; }
+    int[] idleRuns(int j){ return idle[(j-1)/T]; }
+
+    void update(FluidEngine sim,float dt0){
+        Arrays.fill(hot,false);
+        Arrays.fill(speed,0f);
+        for(int j=1;j<=NY;j++){
+            int row = ((j-1)/T)*tx;
+            for(int t=0;t<tx;t++){
+                boolean h = false;
+                float v = speed[row+t];
+                for(int i=t*T+1,end=Math.min(NX,t*T+T),id=sim.IX(i,j);i<=end;i++,id++){
+                    v = Math.max(v,Math.max(Math.abs(sim.Vx[id]),Math.abs(sim.Vy[id])));
+                    if(sim.half != null) h |= Math.abs(Half.toFloat(sim.half.d[id])) > threshold;
+                    else h |= Math.abs(sim.density[id]) > threshold;
+                }
+                speed[row+t] = v;
+                if(h || v > threshold) hot[row+t] = true;
+            }
+        }
+        float cold = 0;
+        for(int t=0;t<tx*ty;t++) if(!hot[t]) cold = Math.max(cold,speed[t]);
+        int r = (int)Math.ceil(cold*dt0/T) + 1;
+
+        // dilate by r tiles along x, then along y
+        for(int y=0;y<ty;y++)
+            for(int x=0;x<tx;x++){
+                boolean h = false;
+                for(int k=Math.max(0,x-r);k<=Math.min(tx-1,x+r) && !h;k++) h = hot[y*tx+k];
+                tmp[y*tx+x] = h;
+            }
+        count = 0;
+        for(int y=0;y<ty;y++)
+            for(int x=0;x<tx;x++){
+                boolean h = false;
+                for(int k=Math.max(0,y-r);k<=Math.min(ty-1,y+r) && !h;k++) h = tmp[k*tx+x];
+                on[y*tx+x] = h;
+                if(h) count++;
+            }
+        for(int y=0;y<ty;y++){
+            active[y] = runs(y,true);
+            idle[y] = runs(y,false);
+        }
+    }
+
+    private int[] runs(int y,boolean state){
+        int[] r = new int[tx+1];
+        int n = 0;
+        for(int x=0;x<tx;x++){
+            if(on[y*tx+x] != state) continue;
+            int i0 = x*T+1, i1 = Math.min(NX,x*T+T)+1;
+            if(n > 0 && r[n-1] == i0) r[n-1] = i1;     // extend the previous run
+            else { r[n++] = i0; r[n++] = i1; }
+        }
+        return Arrays.copyOf(r,n);
+    }
+}
@@ -0,0 +1,296 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+// Full solver state on disk: every field array, the parameters and the step count, so a run can
+// resume where it stopped, on another machine too. Fields are stored row-major with ghost cells
+// whatever the layout, in chunks of CHUNK floats moved through direct buffers with FileChannel
+// bulk transfers. With compression each chunk is deflated (or inflated) as its own task on the
+// shared fork-join pool and written as an int length followed by the deflate stream. At most
+// twice the pool's parallelism of chunks are in flight, each holding a Slot: its buffers and
+// (de)compressor are reused by every chunk that slot carries, and deflated chunks are written in
+// file order as the oldest task completes, so memory stays bounded by the window, not the state.
+//
+// Header, HEADER bytes little-endian: magic, version, NX, NY, long step count, dt, diff, visc,
+// densityAmount, velocityAmount, field count, flags (1 = deflate), CHUNK.
+final class Checkpoint {
+    static final int MAGIC = 0x4E53434B;        // "NSCK"
+    static final int VERSION = 1;
+    static final int HEADER = 64;
+    static final int DEFLATE = 1;
+    static final int CHUNK = 1 << 20;           // floats per chunk, 4 MB
+
+    private Checkpoint(){}
+
+    // the state arrays in file order; packed density goes through float copies (its s is scratch
+    // cleared between steps, stored as zeros), so a file restores into either kind of engine
+    private static float[][] fields(FluidEngine sim){
+        float[] density = sim.half != null ? new float[sim.size] : sim.density, s = sim.half != null ? new float[sim.size] : sim.s;
+        return new float[][]{density,s,sim.Vx,sim.Vy,sim.Vx0,sim.Vy0,sim.pressure[0],sim.pressure[1]};
+    }
+
+    // size in bytes of what was written
+    static long save(FluidEngine sim,Path file,boolean compress) throws IOException {
+        float[][] fields = fields(sim);
+        if(sim.half != null) sim.half.decode(fields[0]);
+        int cells = (sim.NX+2)*(sim.NY+2);
+        try(FileChannel ch = FileChannel.open(file,StandardOpenOption.CREATE,StandardOpenOption.TRUNCATE_EXISTING,StandardOpenOption.WRITE)){
+            SimParams p = sim.params.get();
+            ByteBuffer h = ByteBuffer.allocateDirect(HEADER).order(ByteOrder.LITTLE_ENDIAN);
+            h.putInt(MAGIC).putInt(VERSION).putInt(sim.NX).putInt(sim.NY).putLong(sim.stepCount)
+             .putFloat(p.dt()).putFloat(p.diff()).putFloat(p.visc()).putFloat(p.densityAmount()).putFloat(p.velocityAmount())
+             .putInt(fields.length).putInt(compress ? DEFLATE : 0).putInt(CHUNK);
+            h.clear();
+            writeFully(ch,h);
+
+            if(!compress){
+                ByteBuffer buf = ByteBuffer.allocateDirect(Math.min(CHUNK,cells)*Float.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+                for(float[] f : fields){
+                    float[] src = rowMajor(sim,f);
+                    for(int off=0;off<cells;off+=CHUNK){
+                        int n = Math.min(CHUNK,cells-off);
+                        buf.clear();
+                        buf.asFloatBuffer().put(src,off,n);
+                        buf.limit(n*Float.BYTES);
+                        writeFully(ch,buf);
+                    }
+                }
+                return ch.size();
+            }
+
+            Window w = new Window(Math.min(CHUNK,cells),true);
+            try {
+                for(float[] f : fields){
+                    float[] src = rowMajor(sim,f);
+                    for(int off=0;off<cells;off+=CHUNK){
+                        int o = off, n = Math.min(CHUNK,cells-off);
+                        Slot slot = w.free(ch);
+                        w.submit(() -> deflate(src,o,n,slot));
+                    }
+                }
+                w.drain(ch);
+            } finally { w.close(); }
+            return ch.size();
+        }
+    }
+
+    // reads the grid size {NX, NY} of a checkpoint, to build a matching engine
+    static int[] gridSize(Path file) throws IOException {
+        try(FileChannel ch = FileChannel.open(file,StandardOpenOption.READ)){
+            ByteBuffer h = readHeader(ch,file);
+            return new int[]{h.getInt(8),h.getInt(12)};
+        }
+    }
+
+    static void restore(FluidEngine sim,Path file) throws IOException {
+        float[][] fields = fields(sim);
+        int cells = (sim.NX+2)*(sim.NY+2);
+        try(FileChannel ch = FileChannel.open(file,StandardOpenOption.READ)){
+            ByteBuffer h = readHeader(ch,file);
+            if(h.getInt(8) != sim.NX || h.getInt(12) != sim.NY)
+                throw new IOException(file+" holds a "+h.getInt(8)+"x"+h.getInt(12)+" grid, not "+sim.NX+"x"+sim.NY);
+            if(h.getInt(44) != fields.length || h.getInt(52) != CHUNK) throw new IOException(file+": unsupported field or chunk count");
+            boolean compressed = (h.getInt(48) & DEFLATE) != 0;
+            float[][] dst = new float[fields.length][];
+            for(int k=0;k<fields.length;k++) dst[k] = sim.layout.rowMajor() ? fields[k] : new float[cells];
+
+            if(!compressed){
+                ByteBuffer buf = ByteBuffer.allocateDirect(Math.min(CHUNK,cells)*Float.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+                for(float[] f : dst)
+                    for(int off=0;off<cells;off+=CHUNK){
+                        int n = Math.min(CHUNK,cells-off);
+                        buf.clear().limit(n*Float.BYTES);
+                        readFully(ch,buf,file);
+                        buf.flip();
+                        buf.asFloatBuffer().get(f,off,n);
+                    }
+            }
+            else {
+                ByteBuffer len = ByteBuffer.allocateDirect(Integer.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+                Window w = new Window(Math.min(CHUNK,cells),false);
+                try {
+                    for(float[] f : dst)
+                        for(int off=0;off<cells;off+=CHUNK){
+                            len.clear();
+                            readFully(ch,len,file);
+                            Slot slot = w.free(null);
+                            ByteBuffer in = slot.input(len.getInt(0));
+                            readFully(ch,in,file);
+                            in.flip();
+                            int o = off, n = Math.min(CHUNK,cells-off);
+                            w.submit(() -> inflate(slot,f,o,n));
+                        }
+                    w.drain(null);
+                } finally { w.close(); }
+            }
+            if(!sim.layout.rowMajor())
+                for(int k=0;k<fields.length;k++) scatter(sim,dst[k],fields[k]);
+            if(sim.half != null) sim.half.encode(fields[0]);
+
+            sim.stepCount = h.getLong(16);
+            sim.maxSpeed = maxSpeed(sim);
+            sim.params.set(new SimParams(h.getFloat(28),h.getFloat(32),h.getFloat(24),h.getFloat(36),h.getFloat(40)));
+        }
+    }
+
+    // src[off, off+n) deflated into slot.out behind its length
+    private static Slot deflate(float[] src,int off,int n,Slot slot){
+        ByteBuffer in = slot.in.clear().limit(n*Float.BYTES);
+        in.asFloatBuffer().put(src,off,n);
+        Deflater d = slot.deflater;
+        d.reset();
+        d.setInput(in);
+        d.finish();
+        ByteBuffer out = slot.out.clear().position(Integer.BYTES);
+        while(!d.finished()) d.deflate(out);
+        out.putInt(0,out.position()-Integer.BYTES);
+        out.flip();
+        return slot;
+    }
+
+    // slot.in, a whole deflate stream, inflated into dst[off, off+n)
+    private static Slot inflate(Slot slot,float[] dst,int off,int n) throws DataFormatException {
+        ByteBuffer out = slot.out.clear().limit(n*Float.BYTES);
+        Inflater inf = slot.inflater;
+        inf.reset();
+        inf.setInput(slot.in);
+        while(!inf.finished() && out.hasRemaining())
+            if(inf.inflate(out) == 0 && (inf.needsInput() || inf.needsDictionary())) break;
+        if(out.hasRemaining()) throw new DataFormatException("truncated chunk");
+        out.flip();
+        out.asFloatBuffer().get(dst,off,n);
+        return slot;
+    }
+
+    // Buffers and (de)compressor for one chunk in flight. Deflating, in holds the raw floats and out
+    // the length and stream to write; inflating, in holds the stream read from the file and out the
+    // floats. Direct, so the zip streams and FileChannel work on them without copies.
+    private static final class Slot {
+        ByteBuffer in, out;
+        final Deflater deflater;
+        final Inflater inflater;
+
+        Slot(int floats,boolean deflate){
+            in = ByteBuffer.allocateDirect(deflate ? floats*Float.BYTES : 0).order(ByteOrder.LITTLE_ENDIAN);
+            // room for the length prefix and incompressible data
+            out = ByteBuffer.allocateDirect(deflate ? Integer.BYTES + floats*Float.BYTES + floats/25 + 1024 : floats*Float.BYTES)
+                            .order(ByteOrder.LITTLE_ENDIAN);
+            deflater = deflate ? new Deflater(Deflater.BEST_SPEED) : null;
+            inflater = deflate ? null : new Inflater();
+        }
+
+        // in, cleared to take bytes; grown when a stored stream is larger than any before it
+        ByteBuffer input(int bytes){
+            if(in.capacity() < bytes) in = ByteBuffer.allocateDirect(bytes);
+            return in.clear().limit(bytes);
+        }
+
+        void end(){
+            if(deflater != null) deflater.end();
+            if(inflater != null) inflater.end();
+        }
+    }
+
+    // Chunk tasks in submission order, at most twice the pool's parallelism at once. free() hands
+    // out an idle slot, first waiting for the oldest task when all are busy and, when saving,
+    // writing what it deflated; drain() does the same for the rest.
+    private static final class Window {
+        private final int floats, limit;
+        private final boolean deflate;
+        private final ArrayDeque<Slot> idle = new ArrayDeque<>();
+        private final ArrayDeque<Future<Slot>> busy = new ArrayDeque<>();
+        private final List<Slot> all = new ArrayList<>();
+
+        Window(int floats,boolean deflate){
+            this.floats = floats; this.deflate = deflate;
+            limit = 2*Parallel.pool.getParallelism();
+        }
+
+        Slot free(FileChannel ch) throws IOException {
+            if(idle.isEmpty()){
+                if(all.size() < limit){ Slot s = new Slot(floats,deflate); all.add(s); return s; }
+                finish(ch);
+            }
+            return idle.pop();
+        }
+
+        void submit(Callable<Slot> task){ busy.add(Parallel.pool.submit(task)); }
+
+        void drain(FileChannel ch) throws IOException {
+            while(!busy.isEmpty()) finish(ch);
+        }
+
+        private void finish(FileChannel ch) throws IOException {
+            Slot s = await(busy.poll());
+            if(ch != null) writeFully(ch,s.out);
+            idle.push(s);
+        }
+
+        // after a failure the remaining tasks still use their slots; let them end first
+        void close(){
+            for(Future<Slot> f : busy) f.cancel(false);
+            for(Future<Slot> f : busy){
+                try { f.get(); } catch(Exception e){ /* already failing */ }
+            }
+            for(Slot s : all) s.end();
+        }
+    }
+
+    private static <T> T await(Future<T> f) throws IOException {
+        try {
+            return f.get();
+        } catch(InterruptedException e){
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted",e);
+        } catch(ExecutionException e){
+            throw new IOException("checkpoint chunk failed",e.getCause());
+        }
+    }
+
+    private static ByteBuffer readHeader(FileChannel ch,Path file) throws IOException {
+        ByteBuffer h = ByteBuffer.allocateDirect(HEADER).order(ByteOrder.LITTLE_ENDIAN);
+        readFully(ch,h,file);
+        if(h.getInt(0) != MAGIC || h.getInt(4) != VERSION) throw new IOException(file+" is not a checkpoint");
+        return h;
+    }
+
+    private static void writeFully(FileChannel ch,ByteBuffer b) throws IOException {
+        while(b.hasRemaining()) ch.write(b);
+    }
+
+    private static void readFully(FileChannel ch,ByteBuffer b,Path file) throws IOException {
+        while(b.hasRemaining())
+            if(ch.read(b) < 0) throw new IOException(file+" is truncated");
+    }
+
+    private static float maxSpeed(FluidEngine sim){
+        float max = 0;
+        for(int id=0;id<sim.size;id++) max = Math.max(max,Math.max(Math.abs(sim.Vx[id]),Math.abs(sim.Vy[id])));
+        return max;
+    }
+
+    private static float[] rowMajor(FluidEngine sim,float[] f){
+        if(sim.layout.rowMajor()) return f;
+        float[] out = new float[(sim.NX+2)*(sim.NY+2)];
+        for(int j=0,k=0;j<sim.NY+2;j++)
+            for(int i=0;i<sim.NX+2;i++) out[k++] = f[sim.IX(i,j)];
+        return out;
+    }
+
+    private static void scatter(FluidEngine sim,float[] src,float[] f){
+        for(int j=0,k=0;j<sim.NY+2;j++)
+            for(int i=0;i<sim.NX+2;i++) f[sim.IX(i,j)] = src[k++];
+    }
+}
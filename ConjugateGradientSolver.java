@@ -0,0 +1,149 @@
+import java.util.Arrays;
+
+// Matrix-free preconditioned conjugate gradient. The operator is applied through the same ghost
+// cells Gauss-Seidel sees (sim.setBnd fills them), so it solves exactly the system of the other
+// solvers. Iterates until the residual, relative to the right-hand side, drops below the
+// tolerance (1e-4 by default).
+public class ConjugateGradientSolver implements LinearSolver {
+    enum Preconditioner { JACOBI, IC }
+
+    final Preconditioner pre;
+
+    int iterations;         // iterations used by the last solve
+    double residual;        // relative residual after the last solve
+
+    private float[] r, z, p, q, diag;
+    private int pivotsB = -1;           // key of the cached diagonal / IC(0) pivots
+    private float pivotsA, pivotsC;
+
+    public ConjugateGradientSolver(Preconditioner pre){ this.pre = pre; }
+
+    @Override
+    public int solve(FluidEngine sim,int b,float[] x,float[] x0,float a,float c,int maxIter,float tol){
+        int NX = sim.NX, NY = sim.NY, w = NX+2;
+        if(r == null || r.length != sim.size){
+            r = new float[sim.size]; z = new float[sim.size]; p = new float[sim.size]; q = new float[sim.size];
+            diag = new float[sim.size];
+            pivotsB = -1;
+        }
+        if(pivotsB != b || pivotsA != a || pivotsC != c) pivots(NX,NY,b,a,c);
+        // pure Neumann pressure: only the zero-mean part of the right-hand side is reachable
+        boolean singular = b == 0 && c == 4*a;
+
+        iterations = 0; residual = 0;
+        double rhsNorm = MultigridSolver.norm(x0,NX,NY);
+        if(rhsNorm == 0){ Arrays.fill(x,0f); return 0; }        // x may hold a warm start
+
+        sim.setBnd(b,x);
+        apply(x,q,NX,NY,a,c);
+        for(int j=1;j<=NY;j++)
+            for(int i=1,id=j*w+1;i<=NX;i++,id++) r[id] = x0[id]-q[id];
+        if(singular) removeMean(r,NX,NY);
+
+        precondition(NX,NY,a);
+        System.arraycopy(z,0,p,0,z.length);
+        double rz = dot(r,z,NX,NY);
+        while(iterations < maxIter){
+            sim.setBnd(b,p);
+            apply(p,q,NX,NY,a,c);
+            double alpha = rz/dot(p,q,NX,NY);
+            double rr = 0;
+            for(int j=1;j<=NY;j++)
+                for(int i=1,id=j*w+1;i<=NX;i++,id++){
+                    x[id] += (float)(alpha*p[id]);
+                    r[id] -= (float)(alpha*q[id]);
+                    rr += (double)r[id]*r[id];
+                }
+            iterations++;
+            residual = Math.sqrt(rr)/rhsNorm;
+            if(residual < tol) break;
+
+            precondition(NX,NY,a);
+            double rzNew = dot(r,z,NX,NY);
+            float beta = (float)(rzNew/rz);
+            rz = rzNew;
+            for(int j=1;j<=NY;j++)
+                for(int i=1,id=j*w+1;i<=NX;i++,id++) p[id] = z[id] + beta*p[id];
+        }
+        sim.setBnd(b,x);
+        return iterations;
+    }
+
+    @Override public int defaultMaxIter(){ return 1000; }
+    @Override public float defaultTol(){ return 1e-4f; }
+
+    // y = c*x - a*(sum of neighbours), ghosts of x already filled
+    static void apply(float[] x,float[] y,int NX,int NY,float a,float c){
+        int w = NX+2;
+        Parallel.forRows(1,NY+1,(j0,j1) -> {
+            for(int j=j0;j<j1;j++)
+                for(int i=1,id=j*w+1;i<=NX;i++,id++)
+                    y[id] = c*x[id] - a*(x[id-1] + x[id+1] + x[id-w] + x[id+w]);
+        });
+    }
+
+    // z = M^-1 r
+    private void precondition(int NX,int NY,float a){
+        int w = NX+2;
+        if(pre == Preconditioner.JACOBI){
+            for(int j=1;j<=NY;j++)
+                for(int i=1,id=j*w+1;i<=NX;i++,id++) z[id] = r[id]/diag[id];
+            return;
+        }
+        // M = (E+L) E^-1 (E+L^T) with E the IC(0) pivots: forward then backward substitution,
+        // skipping neighbours outside the interior (their coupling is folded into the diagonal)
+        for(int j=1;j<=NY;j++)
+            for(int i=1,id=j*w+1;i<=NX;i++,id++){
+                float s = r[id];
+                if(i > 1) s += a*z[id-1];
+                if(j > 1) s += a*z[id-w];
+                z[id] = s/diag[id];
+            }
+        for(int j=NY;j>=1;j--)
+            for(int i=NX,id=j*w+NX;i>=1;i--,id--){
+                float s = 0;
+                if(i < NX) s += z[id+1];
+                if(j < NY) s += z[id+w];
+                z[id] += a*s/diag[id];
+            }
+    }
+
+    // Effective diagonal: c minus the wall couplings that setBnd mirrors back onto the cell.
+    // For IC(0) the diagonal is then replaced by the incomplete-Cholesky pivots.
+    private void pivots(int NX,int NY,int b,float a,float c){
+        int w = NX+2;
+        float sx = b==1 ? -1 : 1, sy = b==2 ? -1 : 1;
+        for(int j=1;j<=NY;j++)
+            for(int i=1,id=j*w+1;i<=NX;i++,id++){
+                float d = c;
+                if(i == 1) d -= a*sx;
+                if(i == NX) d -= a*sx;
+                if(j == 1) d -= a*sy;
+                if(j == NY) d -= a*sy;
+                if(pre == Preconditioner.IC){
+                    if(i > 1) d -= a*a/diag[id-1];
+                    if(j > 1) d -= a*a/diag[id-w];
+                }
+                diag[id] = d;
+            }
+        pivotsB = b; pivotsA = a; pivotsC = c;
+    }
+
+    static double dot(float[] u,float[] v,int NX,int NY){
+        int w = NX+2;
+        double sum = 0;
+        for(int j=1;j<=NY;j++)
+            for(int i=1,id=j*w+1;i<=NX;i++,id++) sum += (double)u[id]*v[id];
+        return sum;
+    }
+
+    static void removeMean(float[] v,int NX,int NY){
+        int w = NX+2;
+        double sum = 0;
+        for(int j=1;j<=NY;j++)
+            for(int i=1,id=j*w+1;i<=NX;i++,id++) sum += v[id];
+        float mean = (float)(sum/((double)NX*NY));
+        for(int j=1;j<=NY;j++)
+            for(int i=1,id=j*w+1;i<=NX;i++,id++) v[id] -= mean;
+    }
+}
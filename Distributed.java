@@ -0,0 +1,238 @@
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+// Headless's scenario with the grid split into horizontal slabs, one worker JVM per slab, all on
+// loopback so it runs on one machine:
+//   java Distributed --workers=4 [--n=1024 --steps=500 ...] [--verify]
+// Each worker steps an engine over its own rows plus --halo= (16) rows copied from each
+// neighbour, with the usual kernels; Halo refreshes the copies wherever setBnd runs. Workers only
+// meet in those exchanges, so anything that decides per slab how much work a step does is
+// rejected: residual tolerances, --cfl and tile skipping. The solvers must be gs or rb, which
+// reach the neighbours through setBnd alone. Red-black then repeats the single-process sweeps;
+// Gauss-Seidel restarts its ordering in every slab, which after 20 sweeps leaves it as close to
+// one process as red-black (both within about 5e-5 in --verify without clamping). Advection
+// traces back at most --halo rows across an edge and clamps beyond, as at a wall; that, not the
+// solver, is what makes a run differ more, and the launcher counts the clamped departure points
+// so the halo can be sized. At the end the workers send their rows back and the launcher prints
+// the timings. --verify has the workers also send the state before the last step, takes that
+// step in this process too, and compares, as Headless does.
+public class Distributed {
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        int rank = -1, port = 0;
+        List<String> options = new ArrayList<>();
+        for(String a : args){
+            if(a.startsWith("--rank=")) rank = Integer.parseInt(a.substring("--rank=".length()));
+            else if(a.startsWith("--coordinator=")) port = Integer.parseInt(a.substring("--coordinator=".length()));
+            else options.add(a);
+        }
+        SimConfig cfg = SimConfig.parse(options.toArray(new String[0]));
+        check(cfg);
+        if(rank >= 0) worker(cfg,rank,port);
+        else launch(cfg,options);
+    }
+
+    static void check(SimConfig cfg){
+        if(cfg.workers < 1 || cfg.halo < 0 || (cfg.workers > 1 && cfg.ny/cfg.workers <= cfg.halo))
+            throw new IllegalArgumentException("--workers must be at least 1, with more than --halo rows each");
+        if(!List.of("gs","rb").contains(cfg.solver) || (cfg.pressure != null && !List.of("gs","rb").contains(cfg.pressure))
+                || !cfg.precision.equals("float") || cfg.tol > 0 || !cfg.layout.equals("rowmajor")
+                || cfg.cfl > 0 || cfg.activeThreshold > 0 || cfg.halfScalars)
+            throw new IllegalArgumentException("--workers needs --solver and --pressure gs or rb, float precision, no --tol,"
+                    +" the row-major layout and none of --cfl, --active-threshold or --half-scalars");
+        if(cfg.restore != null || cfg.record != null || cfg.export != null || cfg.checkpoint != null || cfg.obstacles != null)
+            throw new IllegalArgumentException("--workers runs cannot restore, record, export, checkpoint or place obstacles");
+    }
+
+    // {first row - 1, row count} of slab rank when ny rows are split over n slabs
+    static int[] rows(int ny,int n,int rank){
+        int base = ny/n, extra = ny%n;
+        return new int[]{rank*base + Math.min(rank,extra), base + (rank < extra ? 1 : 0)};
+    }
+
+    static void launch(SimConfig cfg,List<String> options) throws IOException, InterruptedException {
+        int n = cfg.workers;
+        // the workers share the machine's cores unless told otherwise
+        int threads = cfg.threads > 0 ? cfg.threads : Math.max(1,Runtime.getRuntime().availableProcessors()/n);
+        List<Process> procs = new ArrayList<>();
+        SocketChannel[] conn = new SocketChannel[n];
+        try(ServerSocketChannel server = ServerSocketChannel.open().bind(new InetSocketAddress(InetAddress.getLoopbackAddress(),0))){
+            for(int k=0;k<n;k++){
+                List<String> cmd = new ArrayList<>();
+                cmd.add(ProcessHandle.current().info().command().orElse("java"));
+                cmd.addAll(ManagementFactory.getRuntimeMXBean().getInputArguments());
+                cmd.add("-cp"); cmd.add(System.getProperty("java.class.path"));
+                cmd.add("Distributed");
+                cmd.addAll(options);
+                cmd.add("--threads="+threads);
+                cmd.add("--rank="+k);
+                cmd.add("--coordinator="+((InetSocketAddress)server.getLocalAddress()).getPort());
+                Process p = new ProcessBuilder(cmd).inheritIO().start();
+                // a worker that dies would leave everyone else blocked on it
+                p.onExit().thenAccept(q -> { if(q.exitValue() != 0) closeAll(server,conn); });
+                procs.add(p);
+            }
+
+            // each worker reports its rank and where it listens for the slab below it
+            int[] ports = new int[n];
+            for(int k=0;k<n;k++){
+                SocketChannel ch = server.accept();
+                ByteBuffer b = read(ch,8);
+                int rank = b.getInt();
+                conn[rank] = ch;
+                ports[rank] = b.getInt();
+            }
+            for(int k=0;k<n;k++) write(conn[k],buffer(4).putInt(k > 0 ? ports[k-1] : 0).flip());
+
+            FluidEngine ref = null, whole = new FluidEngine(cfg.nx,cfg.ny);
+            if(cfg.verify){
+                ref = cfg.newEngine();
+                for(int k=0;k<n;k++) readState(conn[k],ref,rows(cfg.ny,n,k));
+                ref.stepCount = cfg.steps-1;
+            }
+            long slowest = 0, exchanges = 0, exchangeNanos = 0;
+            long clamped = 0;
+            for(int k=0;k<n;k++){
+                ByteBuffer b = read(conn[k],32);
+                slowest = Math.max(slowest,b.getLong());
+                exchanges = b.getLong();
+                exchangeNanos = Math.max(exchangeNanos,b.getLong());
+                clamped += b.getLong();
+                readState(conn[k],whole,rows(cfg.ny,n,k));
+            }
+            for(Process p : procs) p.waitFor();
+
+            double secs = slowest/1e9;
+            System.out.printf("%dx%d solver=%s workers=%d threads=%d steps=%d time=%.3fs %.1f steps/s %.2f ns/cell/step%n",
+                    cfg.nx, cfg.ny, cfg.solver, n, threads, cfg.steps, secs, cfg.steps/secs, secs*1e9/cfg.steps/((double)cfg.nx*cfg.ny));
+            if(n > 1){
+                System.out.printf("halo exchanges: %d per step, up to %.1f%% of a worker's time (%.1f us each)%n",
+                        exchanges/cfg.steps, 100.0*exchangeNanos/slowest, exchangeNanos/1e3/exchanges);
+                System.out.printf("density departure points beyond --halo=%d: %d (%.1f per step)%n",
+                        cfg.halo, clamped, clamped/(double)cfg.steps);
+            }
+            if(ref != null){
+                Headless.force(ref);
+                ref.step();
+                double ed = Headless.relDiff(whole.density,ref.density);
+                double ev = Math.max(Headless.relDiff(whole.Vx,ref.Vx),Headless.relDiff(whole.Vy,ref.Vy));
+                System.out.printf("step %d: one-step difference from a single process density %.2e velocity %.2e%n",cfg.steps,ed,ev);
+                System.out.println(Math.max(ed,ev) <= 1e-2 ? "verify: ok" : "verify: FAILED");
+                if(Math.max(ed,ev) > 1e-2) System.exit(1);
+            }
+        }
+        finally {
+            closeAll(null,conn);
+            for(Process p : procs) p.destroy();
+        }
+    }
+
+    // owned cells of rows [j0, j1] whose density, advected with the step's final velocity, was
+    // traced back past the rows copied from a neighbour
+    static int clamped(FluidEngine sim,int j0,int j1){
+        float dt0 = sim.params.get().dt()*sim.N;
+        int count = 0;
+        for(int j=j0;j<=j1;j++)
+            for(int i=1;i<=sim.NX;i++){
+                float y = j - dt0*sim.Vy[sim.IX(i,j)];
+                if((j0 > 1 && y < 0.5f) || (j1 < sim.NY && y > sim.NY+0.5f)) count++;
+            }
+        return count;
+    }
+
+    // what a step depends on: the fields, and the pressures that seed its solves
+    static float[][] state(FluidEngine sim){
+        return new float[][]{sim.density,sim.Vx,sim.Vy,sim.pressure[0],sim.pressure[1]};
+    }
+
+    // r's rows of the state, {first row - 1, row count} as from rows(), starting at row first
+    static void sendState(SocketChannel ch,FluidEngine sim,int[] r,int first) throws IOException {
+        int w = sim.NX+2;
+        float[][] x = state(sim);
+        ByteBuffer b = buffer(x.length*r[1]*w*4);
+        for(float[] f : x){
+            b.asFloatBuffer().put(f,first*w,r[1]*w);
+            b.position(b.position()+r[1]*w*4);
+        }
+        write(ch,b.flip());
+    }
+
+    static void readState(SocketChannel ch,FluidEngine whole,int[] r) throws IOException {
+        int w = whole.NX+2;
+        float[][] x = state(whole);
+        ByteBuffer b = read(ch,x.length*r[1]*w*4);
+        for(float[] f : x){
+            b.asFloatBuffer().get(f,(r[0]+1)*w,r[1]*w);
+            b.position(b.position()+r[1]*w*4);
+        }
+        if(r[0]+r[1] == whole.NY){
+            whole.setBnd(0,whole.density); whole.setBnd(1,whole.Vx); whole.setBnd(2,whole.Vy);
+            whole.setBnd(0,whole.pressure[0]); whole.setBnd(0,whole.pressure[1]);
+        }
+    }
+
+    static void worker(SimConfig cfg,int rank,int port) throws IOException {
+        int n = cfg.workers;
+        int[] r = rows(cfg.ny,n,rank);
+        InetAddress lo = InetAddress.getLoopbackAddress();
+        try(SocketChannel coordinator = SocketChannel.open(new InetSocketAddress(lo,port));
+            ServerSocketChannel server = ServerSocketChannel.open().bind(new InetSocketAddress(lo,0))){
+            write(coordinator,buffer(8).putInt(rank).putInt(((InetSocketAddress)server.getLocalAddress()).getPort()).flip());
+            int upPort = read(coordinator,4).getInt();
+            SocketChannel up = rank > 0 ? SocketChannel.open(new InetSocketAddress(lo,upPort)) : null;
+            SocketChannel down = rank < n-1 ? server.accept() : null;
+            int h = cfg.halo, above = up != null ? h : 0;
+            for(SocketChannel ch : new SocketChannel[]{up,down})
+                if(ch != null) ch.setOption(StandardSocketOptions.TCP_NODELAY,true);
+
+            int ny = above + r[1] + (down != null ? h : 0);
+            FluidEngine sim = cfg.configure(new FluidEngine(cfg.nx,ny,Math.min(cfg.nx,cfg.ny),FieldLayout.rowMajor(cfg.nx,ny)));
+            sim.halo = new Halo(up,down,h,rank%2 == 0);
+            sim.row0 = r[0]-above;
+            long clamped = 0;
+            long t0 = System.nanoTime();
+            for(int k=0;k<cfg.steps;k++){
+                if(cfg.verify && k == cfg.steps-1) sendState(coordinator,sim,r,above+1);
+                Headless.force(sim,cfg.ny,sim.row0);
+                sim.step();
+                clamped += clamped(sim,above+1,above+r[1]);
+            }
+            long nanos = System.nanoTime()-t0;
+
+            write(coordinator,buffer(32).putLong(nanos).putLong(sim.halo.exchanges).putLong(sim.halo.nanos).putLong(clamped).flip());
+            sendState(coordinator,sim,r,above+1);
+            if(up != null) up.close();
+            if(down != null) down.close();
+        }
+    }
+
+    static ByteBuffer buffer(int bytes){ return ByteBuffer.allocateDirect(bytes).order(ByteOrder.nativeOrder()); }
+
+    static ByteBuffer read(SocketChannel ch,int bytes) throws IOException {
+        ByteBuffer b = buffer(bytes);
+        while(b.hasRemaining())
+            if(ch.read(b) < 0) throw new IOException("worker closed its connection");
+        return b.flip();
+    }
+
+    static void write(SocketChannel ch,ByteBuffer b) throws IOException {
+        while(b.hasRemaining()) ch.write(b);
+    }
+
+    private static void closeAll(ServerSocketChannel server,SocketChannel[] conn){
+        try {
+            if(server != null) server.close();
+            for(SocketChannel ch : conn) if(ch != null) ch.close();
+        }
+        catch(IOException ignored){}
+    }
+}
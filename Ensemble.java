@@ -0,0 +1,108 @@
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Runs the Headless scenario once for every combination of the swept parameters, several runs at
+// a time, e.g.
+//   java Ensemble --visc=0.0001,0.0002 --diff=0.000005 --dt=0.25,0.5 --density-amount=500
+//                 --velocity-amount=25,50,100 [--jobs=0] [--csv=ensemble.csv] [Headless options]
+// Each swept key takes a comma-separated list; a key left out keeps SimParams.DEFAULT. Every job
+// owns one engine for all the runs it takes, reset in place between them, so a sweep allocates
+// its fields once per job rather than once per run. --jobs=0 runs as many at once as there are
+// cores and as fit in the heap; each run is then single-threaded unless --threads says otherwise.
+// Each finished run appends a line to the CSV: its parameters, the mean kinetic energy per cell
+// and the largest speed at the end, and its wall time.
+public class Ensemble {
+    static final String[] SWEPT = {"visc","diff","dt","density-amount","velocity-amount"};
+
+    public static void main(String[] args) throws Exception {
+        SimParams d = SimParams.DEFAULT;
+        float[][] values = {{d.visc()},{d.diff()},{d.dt()},{d.densityAmount()},{d.velocityAmount()}};
+        List<String> options = new ArrayList<>();
+        outer:
+        for(String a : args){
+            for(int k=0;k<SWEPT.length;k++)
+                if(a.startsWith("--"+SWEPT[k]+"=")){
+                    String[] v = a.substring(SWEPT[k].length()+3).split(",");
+                    values[k] = new float[v.length];
+                    for(int q=0;q<v.length;q++) values[k][q] = Float.parseFloat(v[q].trim());
+                    continue outer;
+                }
+            options.add(a);
+        }
+        SimConfig cfg = SimConfig.parse(options.toArray(new String[0]));
+        if(cfg.restore != null || cfg.record != null || cfg.export != null || cfg.checkpoint != null || cfg.jmx != null || cfg.verify)
+            throw new IllegalArgumentException("Ensemble runs cannot restore, record, export, checkpoint, publish MBeans or verify");
+
+        // every combination, the last key varying fastest
+        List<SimParams> runs = new ArrayList<>();
+        for(float visc : values[0]) for(float diff : values[1]) for(float dt : values[2])
+            for(float dens : values[3]) for(float vel : values[4])
+                runs.add(new SimParams(diff,visc,dt,dens,vel));
+
+        int jobs = cfg.jobs > 0 ? cfg.jobs : jobs(cfg);
+        jobs = Math.min(jobs,runs.size());
+        if(cfg.threads == 0 && jobs > 1) cfg.threads = 1;      // the runs are the parallelism
+        Parallel.configure(cfg.threads,cfg.grain);              // once, before the jobs build their engines
+
+        AtomicInteger next = new AtomicInteger();
+        long t0 = System.nanoTime();
+        ExecutorService pool = Executors.newFixedThreadPool(jobs);
+        try(PrintWriter out = new PrintWriter(Files.newBufferedWriter(Path.of(cfg.csv)))){
+            out.println("run,visc,diff,dt,density_amount,velocity_amount,nx,ny,steps,energy,max_velocity,wall_ms");
+            out.flush();
+            List<Future<Void>> done = new ArrayList<>();
+            for(int j=0;j<jobs;j++)
+                done.add(pool.submit(() -> {
+                    FluidEngine sim = cfg.newEngine();
+                    for(int k; (k = next.getAndIncrement()) < runs.size(); ){
+                        String line = run(sim,cfg,k,runs.get(k));
+                        synchronized(out){ out.println(line); out.flush(); }
+                    }
+                    return null;
+                }));
+            for(Future<Void> f : done) f.get();     // rethrows the first failed run
+        }
+        finally { pool.shutdownNow(); }
+        double secs = (System.nanoTime()-t0)/1e9;
+        System.out.printf("%d runs of %d steps on %dx%d in %.3fs, %d at a time (%d threads each), to %s%n",
+                runs.size(), cfg.steps, cfg.nx, cfg.ny, secs, jobs, Parallel.pool.getParallelism(), cfg.csv);
+    }
+
+    // as many concurrent runs as cores, fewer if that many engines would not fit in 3/4 of the free heap
+    static int jobs(SimConfig cfg){
+        Runtime rt = Runtime.getRuntime();
+        long free = rt.maxMemory() - (rt.totalMemory() - rt.freeMemory());
+        // the eight fields plus about as much again for solver scratch (multigrid levels, CG vectors)
+        long perRun = 16L*Float.BYTES*(cfg.nx+2)*(cfg.ny+2);
+        return (int)Math.max(1,Math.min(rt.availableProcessors(),free*3/4/perRun));
+    }
+
+    static String run(FluidEngine sim,SimConfig cfg,int k,SimParams p){
+        long t0 = System.nanoTime();
+        sim.reset();
+        sim.params.set(p);
+        for(int step=0;step<cfg.steps;step++){
+            Headless.force(sim);
+            sim.step();
+        }
+        double energy = 0, max = 0;
+        for(int j=1;j<=sim.NY;j++)
+            for(int i=1;i<=sim.NX;i++){
+                double u = sim.Vx[sim.IX(i,j)], v = sim.Vy[sim.IX(i,j)], e = u*u + v*v;
+                energy += 0.5*e;
+                max = Math.max(max,e);
+            }
+        energy /= (double)sim.NX*sim.NY;
+        return String.format(Locale.ROOT,"%d,%g,%g,%g,%g,%g,%d,%d,%d,%.6e,%.6e,%.1f",
+                k, p.visc(), p.diff(), p.dt(), p.densityAmount(), p.velocityAmount(), sim.NX, sim.NY, cfg.steps,
+                energy, Math.sqrt(max), (System.nanoTime()-t0)/1e6);
+    }
+}
@@ -0,0 +1,44 @@
+// Where cell (i,j) of the (NX+2) x (NY+2) grid, ghost cells included, lives in the field arrays.
+// ROW_MAJOR is the original i + (NX+2)*j; TILED stores B x B blocks contiguously so the j+-1
+// neighbours of a stencil and the bilinear gathers of advection usually stay inside one block.
+// Only code that goes through FluidEngine.IX follows the layout: the Gauss-Seidel solver, the
+// scalar kernels, setBnd and the sources. Everything else walks rows by stride and needs ROW_MAJOR
+// (see FluidEngine.layoutSupported).
+public interface FieldLayout {
+    int index(int i,int j);
+    int size();                     // array length, padding included
+    boolean rowMajor();
+
+    static FieldLayout rowMajor(int nx,int ny){
+        int w = nx+2;
+        return new FieldLayout(){
+            @Override public int index(int i,int j){ return i + w*j; }
+            @Override public int size(){ return w*(ny+2); }
+            @Override public boolean rowMajor(){ return true; }
+        };
+    }
+
+    // B = 1 << shift cells on a side; the last block row and column are padded out to B
+    static FieldLayout tiled(int nx,int ny,int shift){
+        int B = 1 << shift, mask = B-1, area = shift*2;
+        int tilesX = (nx+2+mask) >> shift, tilesY = (ny+2+mask) >> shift;
+        return new FieldLayout(){
+            @Override public int index(int i,int j){
+                return ((((j >> shift)*tilesX + (i >> shift)) << area) | ((j & mask) << shift) | (i & mask));
+            }
+            @Override public int size(){ return (tilesX*tilesY) << area; }
+            @Override public boolean rowMajor(){ return false; }
+        };
+    }
+
+    // "rowmajor", "tiled" (32 x 32 blocks, 4 KB of floats) or "tiled-<B>" for a power-of-two B
+    static FieldLayout named(String name,int nx,int ny){
+        if(name.equals("rowmajor")) return rowMajor(nx,ny);
+        if(name.equals("tiled")) return tiled(nx,ny,5);
+        if(name.startsWith("tiled-")){
+            int B = Integer.parseInt(name.substring("tiled-".length()));
+            if(B > 1 && Integer.bitCount(B) == 1) return tiled(nx,ny,Integer.numberOfTrailingZeros(B));
+        }
+        throw new IllegalArgumentException("unknown layout: "+name);
+    }
+}
@@ -0,0 +1,21 @@
+// Copy of the fields a viewer needs, taken between steps so it can be read while the solver
+// keeps writing the live arrays.
+public final class FieldSnapshot {
+    final float[] density, Vx, Vy;
+    Obstacles obstacles;            // as of the copy; immutable, so held by reference. null for none
+    long step;
+    float dt;                       // of the step that produced the fields
+
+    FieldSnapshot(int size){
+        density = new float[size]; Vx = new float[size]; Vy = new float[size];
+    }
+
+    void copyFrom(FluidEngine sim){
+        sim.copyDensity(density);
+        System.arraycopy(sim.Vx,0,Vx,0,Vx.length);
+        System.arraycopy(sim.Vy,0,Vy,0,Vy.length);
+        obstacles = sim.obstacles;
+        step = sim.stepCount;
+        dt = sim.params.get().dt();
+    }
+}
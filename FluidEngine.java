@@ -0,0 +1,330 @@
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReference;
+
+// Solver state and the stable-fluids step pipeline, free of any AWT/Swing dependency
+// so it can run headless. The Swing panel only observes these arrays.
+public class FluidEngine {
+    final int NX, NY;               // interior cells along x and y
+    final int N;                    // cells per unit length (the shorter side); sets the physical scale
+    final AtomicReference<SimParams> params = new AtomicReference<>(SimParams.DEFAULT);
+
+    final FieldLayout layout;
+    final int size;
+    final float[] s, density;       // null when half holds density packed
+    final float[] Vx, Vy;
+    final float[] Vx0, Vy0;
+    long stepCount;
+    LinearSolver solver = new GaussSeidelSolver();
+    LinearSolver pressureSolver;    // pressure solve in project(); null uses solver
+    StencilKernels kernels = new ScalarKernels();   // divergence, gradient and advection passes
+    int maxIter;                    // iteration cap per linear solve; 0 = the solver's default (20 sweeps for GS)
+    float tol;                      // relative residual to stop at; 0 = the solver's default (none for GS)
+    private final int[] velB = {1,2};
+    private final float[][] vel, vel0;      // {Vx, Vy} and {Vx0, Vy0}, diffused together
+    boolean warmStart = true;       // seed each pressure solve with the previous step's pressure
+    final float[][] pressure;       // last pressure of the first and second project() in step()
+    final HalfScalars half;         // half-precision density storage; null keeps it in float
+    StepMetrics metrics;            // per-phase timings; null skips the clock reads
+    final int[] solveIters = new int[5];    // last step: diffuse x, diffuse y (one fused solve), project, project, diffuse density
+    ActiveTiles active;             // quiescent-tile skipping; null processes every cell
+    Halo halo;                      // slab neighbours of a distributed run; null: every edge is a wall
+    int row0;                       // global row of row 0 when this engine is such a slab
+    volatile Obstacles obstacles;   // solid cells inside the grid; null for none. Replaced whole, never edited
+    private final int[] fullRow;
+
+    float cfl;                      // adaptive: cells a substep may carry material; 0 = one step of dt
+    int maxSubsteps = 16;           // adaptive: cap per step, however fast the flow
+    int substeps;                   // taken by the last step
+    float maxSpeed;                 // largest |velocity component| after the last projection, or forcing since
+
+    interface Cells { void run(int i0,int i1,int j0,int j1); }     // columns [i0, i1) of rows [j0, j1)
+    interface CellsMax { float run(int i0,int i1,int j0,int j1); }
+
+    public FluidEngine(int n) { this(n,n); }
+
+    public FluidEngine(int nx,int ny) { this(nx,ny,FieldLayout.rowMajor(nx,ny)); }
+
+    public FluidEngine(int nx,int ny,FieldLayout layout) { this(nx,ny,Math.min(nx,ny),layout); }
+
+    // n given separately for a slab of a larger grid, which keeps the whole grid's scale
+    public FluidEngine(int nx,int ny,int n,FieldLayout layout) { this(nx,ny,n,layout,false); }
+
+    public FluidEngine(int nx,int ny,int n,FieldLayout layout,boolean halfScalars) {
+        NX = nx; NY = ny;
+        N = n;
+        this.layout = layout;
+        size = layout.size();
+        half = halfScalars ? new HalfScalars(size) : null;
+        s = half == null ? new float[size] : null;
+        density = half == null ? new float[size] : null;
+        Vx = new float[size]; Vy = new float[size];
+        Vx0 = new float[size]; Vy0 = new float[size];
+        vel = new float[][]{Vx,Vy}; vel0 = new float[][]{Vx0,Vy0};
+        pressure = new float[][]{new float[size], new float[size]};
+        fullRow = new int[]{1,NX+1};
+    }
+
+    int IX(int i, int j) { return layout.index(i,j); }
+
+    // back to the state of a new engine, keeping the arrays and the solver settings
+    void reset(){
+        for(float[] f : new float[][]{Vx,Vy,Vx0,Vy0,pressure[0],pressure[1]}) Arrays.fill(f,0f);
+        if(half != null) half.clear();
+        else { Arrays.fill(s,0f); Arrays.fill(density,0f); }
+        Arrays.fill(solveIters,0);
+        stepCount = 0; substeps = 0; maxSpeed = 0;
+    }
+
+    // whether the chosen solvers, kernels and tile skipping can run on this layout; all but
+    // Gauss-Seidel and the scalar kernels index rows by stride
+    boolean layoutSupported(){
+        if(layout.rowMajor()) return true;
+        return solver instanceof GaussSeidelSolver
+            && (pressureSolver == null || pressureSolver instanceof GaussSeidelSolver)
+            && kernels instanceof ScalarKernels && active == null;
+    }
+
+    // whether solid cells can be placed: Gauss-Seidel and red-black see them through setBnd, but
+    // multigrid's coarse grids, CG's preconditioner and the refinement residual know only the walls,
+    // and packed density has a boundary pass of its own
+    boolean obstaclesSupported(){
+        return (solver instanceof GaussSeidelSolver || solver instanceof RedBlackSolver)
+            && (pressureSolver == null || pressureSolver instanceof GaussSeidelSolver || pressureSolver instanceof RedBlackSolver)
+            && half == null;
+    }
+
+    void addDensity(int x,int y,float amount){
+        int i = Math.max(1, Math.min(NX, x));
+        int j = Math.max(1, Math.min(NY, y));
+        if(half != null) half.add(IX(i,j),amount);
+        else density[IX(i,j)] += amount;
+    }
+
+    // density as floats, decoded when it is stored packed
+    void copyDensity(float[] into){
+        if(half != null) half.decode(into);
+        else System.arraycopy(density,0,into,0,size);
+    }
+
+    void addVelocity(int x,int y,float amountX,float amountY){
+        int i = Math.max(1, Math.min(NX, x));
+        int j = Math.max(1, Math.min(NY, y));
+        Vx[IX(i,j)] += amountX;
+        Vy[IX(i,j)] += amountY;
+        maxSpeed = Math.max(maxSpeed,Math.max(Math.abs(Vx[IX(i,j)]),Math.abs(Vy[IX(i,j)])));
+    }
+
+    // Advances by dt. In adaptive mode (cfl > 0) the step is split into equal substeps short enough
+    // that the fastest velocity moves at most cfl cells in each, re-planned after every substep
+    // from the speed the last projection found.
+    void step(){
+        SimParams p = params.get();     // parameters may change between steps, never during one
+        long t0 = metrics != null ? System.nanoTime() : 0;
+        substeps = 0;
+        if(cfl <= 0) substep(p,p.dt());
+        else
+            for(float left = p.dt(); left > 0; ){
+                // the last substep the cap allows takes all that is left
+                int n = Math.max(1,Math.min((int)Math.ceil(left*maxSpeed*N/cfl),maxSubsteps-substeps));
+                float h = n == 1 ? left : left/n;
+                substep(p,h);
+                left -= h;
+            }
+        if(metrics != null) metrics.record(StepMetrics.Phase.STEP,System.nanoTime()-t0);
+        stepCount++;
+    }
+
+    private void substep(SimParams p,float dt){
+        long t = metrics != null ? System.nanoTime() : 0;
+        substeps++;
+
+        if(active != null){
+            active.update(this,dt*N);
+            t = lap(StepMetrics.Phase.ACTIVE_TILES,t);
+        }
+
+        solveIters[0] = solveIters[1] = diffuse(velB,vel0,vel,p.visc(),dt);
+        t = lap(StepMetrics.Phase.DIFFUSE_VELOCITY,t);
+        solveIters[2] = project(Vx0,Vy0,Vx,Vy,warmStart ? pressure[0] : null);
+        t = lap(StepMetrics.Phase.PROJECT_1,t);
+        advect(1,Vx,Vx0,Vx0,Vy0,dt);
+        t = lap(StepMetrics.Phase.ADVECT_VX,t);
+        advect(2,Vy,Vy0,Vx0,Vy0,dt);
+        t = lap(StepMetrics.Phase.ADVECT_VY,t);
+        solveIters[3] = project(Vx,Vy,Vx0,Vy0,warmStart ? pressure[1] : null);
+        t = lap(StepMetrics.Phase.PROJECT_2,t);
+
+        if(half != null){
+            // sources went straight into the packed density
+            solveIters[4] = half.diffuse(this,p.diff(),dt);
+            t = lap(StepMetrics.Phase.DIFFUSE_DENSITY,t);
+            half.advect(this,Vx,Vy,dt);
+        }
+        else {
+            solveIters[4] = diffuse(0,s,density,p.diff(),dt);
+            t = lap(StepMetrics.Phase.DIFFUSE_DENSITY,t);
+            advect(0,density,s,Vx,Vy,dt);
+        }
+        lap(StepMetrics.Phase.ADVECT_DENSITY,t);
+        // s, Vx0 and Vy0 were scratch above; clear them so the next step's diffusion solves start from
+        // zero. Left out of the phases, though the step total includes it.
+        if(s != null) Arrays.fill(s,0f);
+        Arrays.fill(Vx0,0f); Arrays.fill(Vy0,0f);
+    }
+
+    // records the time since t under phase and returns now; free when metrics are off
+    private long lap(StepMetrics.Phase phase,long t){
+        if(metrics == null) return 0;
+        long now = System.nanoTime();
+        metrics.record(phase,now-t);
+        return now;
+    }
+
+    int diffuse(int b,float[] x,float[] x0,float diff,float dt){
+        float a=dt*diff*N*N;
+        // idle tiles keep their values undiffused, and the active cells next to them read those
+        forIdle((i0,i1,j0,j1) -> System.arraycopy(x0,IX(i0,j0),x,IX(i0,j0),i1-i0));
+        return linearSolve(b,x,x0,a,1+4*a,solver);
+    }
+    // several fields sharing one coefficient, relaxed in the same sweeps where the solver allows
+    int diffuse(int[] b,float[][] x,float[][] x0,float diff,float dt){
+        float a=dt*diff*N*N;
+        for(int f=0;f<x.length;f++){
+            float[] xf = x[f], x0f = x0[f];
+            forIdle((i0,i1,j0,j1) -> System.arraycopy(x0f,IX(i0,j0),xf,IX(i0,j0),i1-i0));
+        }
+        return linearSolve(b,x,x0,a,1+4*a,solver);
+    }
+    int linearSolve(int b,float[] x,float[] x0,float a,float c,LinearSolver ls){
+        return ls.solve(this,b,x,x0,a,c,maxIter > 0 ? maxIter : ls.defaultMaxIter(),tol > 0 ? tol : ls.defaultTol());
+    }
+    int linearSolve(int[] b,float[][] x,float[][] x0,float a,float c,LinearSolver ls){
+        return ls.solve(this,b,x,x0,a,c,maxIter > 0 ? maxIter : ls.defaultMaxIter(),tol > 0 ? tol : ls.defaultTol());
+    }
+
+    int project(float[] velocX,float[] velocY,float[] p,float[] div){ return project(velocX,velocY,p,div,null); }
+
+    // guess, when given, seeds the pressure solve and receives its result. The pressure is global:
+    // a divergence anywhere moves every cell, so projection covers the whole grid even when tiles
+    // are skipped, and leaves the step's skipping to advection and diffusion.
+    int project(float[] velocX,float[] velocY,float[] p,float[] div,float[] guess){
+        ActiveTiles skip = active;
+        active = null;
+        try { return projectAll(velocX,velocY,p,div,guess); }
+        finally { active = skip; }
+    }
+
+    private int projectAll(float[] velocX,float[] velocY,float[] p,float[] div,float[] guess){
+        LinearSolver ps = pressureSolver != null ? pressureSolver : solver;
+        if(guess != null) System.arraycopy(guess,0,p,0,size);
+        else Arrays.fill(p,0f);
+        int iters;
+        if(ps instanceof RefinedSolver && ((RefinedSolver)ps).inDouble){
+            // --precision=double: divergence, pressure and gradient all in double
+            iters = ((RefinedSolver)ps).project(this,velocX,velocY,p,div,
+                    maxIter > 0 ? maxIter : ps.defaultMaxIter(),tol > 0 ? tol : ps.defaultTol());
+        } else {
+            forActive((i0,i1,j0,j1) -> kernels.divergence(this,velocX,velocY,div,i0,i1,j0,j1));
+            setBnd(0,div); setBnd(0,p);
+            iters = linearSolve(0,p,div,1,4,ps);
+            maxSpeed = maxActive((i0,i1,j0,j1) -> kernels.subtractGradient(this,velocX,velocY,p,i0,i1,j0,j1));
+        }
+        if(guess != null) System.arraycopy(p,0,guess,0,size);
+        setBnd(1,velocX); setBnd(2,velocY);
+        return iters;
+    }
+
+    void advect(int b,float[] d,float[] d0,float[] velocX,float[] velocY,float dt){
+        float dt0 = dt*N;
+        // every cell reads only d0 and the velocities, so row bands are independent
+        forActive((i0,i1,j0,j1) -> kernels.advect(this,d,d0,velocX,velocY,dt0,i0,i1,j0,j1));
+        // nothing moves in an idle tile
+        forIdle((i0,i1,j0,j1) -> System.arraycopy(d0,IX(i0,j0),d,IX(i0,j0),i1-i0));
+        setBnd(b,d);
+    }
+
+    // active runs of interior row j, or the whole row without skipping
+    int[] runs(int j){ return active == null ? fullRow : active.runs(j); }
+
+    // body over the active cells, in row bands on the shared pool (a row at a time when skipping)
+    void forActive(Cells body){
+        Parallel.forRows(1,NY+1,(j0,j1) -> {
+            if(active == null){ body.run(1,NX+1,j0,j1); return; }
+            for(int j=j0;j<j1;j++){
+                int[] r = active.runs(j);
+                for(int k=0;k<r.length;k+=2) body.run(r[k],r[k+1],j,j+1);
+            }
+        });
+    }
+
+    // forActive, keeping the largest value body returns
+    float maxActive(CellsMax body){
+        return Parallel.maxRows(1,NY+1,(j0,j1) -> {
+            if(active == null) return body.run(1,NX+1,j0,j1);
+            float max = 0;
+            for(int j=j0;j<j1;j++){
+                int[] r = active.runs(j);
+                for(int k=0;k<r.length;k+=2) max = Math.max(max,body.run(r[k],r[k+1],j,j+1));
+            }
+            return max;
+        });
+    }
+
+    // body over the cells skipping leaves out, a row at a time; nothing without skipping
+    void forIdle(Cells body){
+        if(active == null) return;
+        for(int j=1;j<=NY;j++){
+            int[] r = active.idleRuns(j);
+            for(int k=0;k<r.length;k+=2) body.run(r[k],r[k+1],j,j+1);
+        }
+    }
+
+    // ghost cells of the walls and the solid cells of obstacles; a slab's edges shared with a
+    // neighbour then take its rows instead
+    void setBnd(int b,float[] x){
+        for(int j=1;j<=NY;j++){
+            x[IX(0,j)] = (b==1)? -x[IX(1,j)]:x[IX(1,j)];
+            x[IX(NX+1,j)] = (b==1)? -x[IX(NX,j)]:x[IX(NX,j)];
+        }
+        for(int i=1;i<=NX;i++){
+            x[IX(i,0)] = (b==2)? -x[IX(i,1)]:x[IX(i,1)];
+            x[IX(i,NY+1)] = (b==2)? -x[IX(i,NY)]:x[IX(i,NY)];
+        }
+        x[IX(0,0)] = 0.5f*(x[IX(1,0)]+x[IX(0,1)]);
+        x[IX(0,NY+1)] = 0.5f*(x[IX(1,NY+1)]+x[IX(0,NY)]);
+        x[IX(NX+1,0)] = 0.5f*(x[IX(NX,0)]+x[IX(NX+1,1)]);
+        x[IX(NX+1,NY+1)] = 0.5f*(x[IX(NX,NY+1)]+x[IX(NX+1,NY)]);
+        Obstacles o = obstacles;
+        if(o != null) o.apply(b,x);
+        if(halo != null) halo.exchange(this,x);
+    }
+
+    // setBnd for several fields in one pass over the boundary
+    void setBnd(int[] b,float[][] x){
+        for(int j=1;j<=NY;j++){
+            int w = IX(0,j), i1 = IX(1,j), e = IX(NX+1,j), in = IX(NX,j);
+            for(int f=0;f<x.length;f++){
+                float[] v = x[f];
+                v[w] = (b[f]==1)? -v[i1]:v[i1];
+                v[e] = (b[f]==1)? -v[in]:v[in];
+            }
+        }
+        for(int i=1;i<=NX;i++){
+            int s0 = IX(i,0), j1 = IX(i,1), n = IX(i,NY+1), jn = IX(i,NY);
+            for(int f=0;f<x.length;f++){
+                float[] v = x[f];
+                v[s0] = (b[f]==2)? -v[j1]:v[j1];
+                v[n] = (b[f]==2)? -v[jn]:v[jn];
+            }
+        }
+        for(float[] v : x){
+            v[IX(0,0)] = 0.5f*(v[IX(1,0)]+v[IX(0,1)]);
+            v[IX(0,NY+1)] = 0.5f*(v[IX(1,NY+1)]+v[IX(0,NY)]);
+            v[IX(NX+1,0)] = 0.5f*(v[IX(NX,0)]+v[IX(NX+1,1)]);
+            v[IX(NX+1,NY+1)] = 0.5f*(v[IX(NX,NY+1)]+v[IX(NX+1,NY)]);
+        }
+        Obstacles o = obstacles;
+        if(o != null) for(int f=0;f<x.length;f++) o.apply(b[f],x[f]);
+        if(halo != null) halo.exchange(this,x);
+    }
+}
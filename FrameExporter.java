@@ -0,0 +1,84 @@
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import javax.imageio.ImageIO;
+
+// Renders steps off-screen at a chosen resolution and writes them as dir/frame_<step>.png, e.g. for
+//   ffmpeg -framerate 60 -pattern_type glob -i 'dir/frame_*.png' -pix_fmt yuv420p run.mp4
+// The solver thread only copies the fields into a free snapshot; rendering and PNG encoding run
+// on their own pool, off the fork-join pool the solver uses. There are twice as many snapshots
+// as threads, and offer() waits for one to come free, so a slow disk slows the run down instead
+// of piling up frames in memory.
+final class FrameExporter implements AutoCloseable {
+    final Path dir;
+    final int width, height;
+    final boolean arrows;
+    long frames;                    // handed to the pool so far
+
+    private final ExecutorService pool;
+    private final ArrayBlockingQueue<FieldSnapshot> free;
+    private volatile IOException failure;
+
+    FrameExporter(FluidEngine sim,Path dir,int width,int height,boolean arrows,int threads) throws IOException {
+        this.dir = Files.createDirectories(dir);
+        this.width = width; this.height = height; this.arrows = arrows;
+        int n = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+        pool = Executors.newFixedThreadPool(n,r -> {
+            Thread t = new Thread(r,"frame exporter");
+            t.setDaemon(true);
+            return t;
+        });
+        free = new ArrayBlockingQueue<>(2*n);
+        for(int k=0;k<2*n;k++) free.add(new FieldSnapshot(sim.size));
+    }
+
+    void offer(FluidEngine sim){
+        if(failure != null) throw new UncheckedIOException(failure);
+        FieldSnapshot f;
+        try { f = free.take(); }
+        catch(InterruptedException e){ Thread.currentThread().interrupt(); return; }
+        f.copyFrom(sim);
+        frames++;
+        pool.execute(() -> {
+            try { write(sim,f); }
+            catch(IOException e){ failure = e; }
+            finally { free.add(f); }
+        });
+    }
+
+    private void write(FluidEngine sim,FieldSnapshot f) throws IOException {
+        BufferedImage cells = new BufferedImage(sim.NX+2,sim.NY+2,BufferedImage.TYPE_INT_ARGB);
+        int[] pixels = ((DataBufferInt)cells.getRaster().getDataBuffer()).getData();
+        FrameRenderer.fillDensity(sim,f.density,pixels,false);
+        if(f.obstacles != null) FrameRenderer.fillObstacles(f.obstacles,pixels);
+        BufferedImage out = new BufferedImage(width,height,BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = out.createGraphics();
+        g.setRenderingHint(RenderingHints.KEY_INTERPOLATION,RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+        g.drawImage(cells,0,0,width,height,null);
+        if(arrows){
+            float sx = width/(float)(sim.NX+2), sy = height/(float)(sim.NY+2);
+            // arrows as long, relative to a cell, as in the viewer at its default 3 pixels per cell
+            FrameRenderer.drawVelocity(g,sim,f,sx,sy,10*sx/3);
+        }
+        g.dispose();
+        ImageIO.write(out,"png",dir.resolve(String.format("frame_%06d.png",f.step)).toFile());
+    }
+
+    // Waits for the frames still being encoded.
+    @Override
+    public void close() throws IOException {
+        pool.shutdown();
+        try { pool.awaitTermination(1,TimeUnit.DAYS); }
+        catch(InterruptedException e){ Thread.currentThread().interrupt(); }
+        if(failure != null) throw failure;
+    }
+}
@@ -0,0 +1,50 @@
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+// Random access to the frames of a FrameRecorder file: frame k sits at a fixed offset, so seeking
+// is a single mapping. Frames are read into row-major snapshots.
+final class FrameReader implements AutoCloseable {
+    final int NX, NY, cells;
+    final long frameBytes;
+    final int frames;
+    final SimParams params;         // at the start of the recording
+
+    private final FileChannel ch;
+
+    FrameReader(Path file) throws IOException {
+        ch = FileChannel.open(file,StandardOpenOption.READ);
+        MappedByteBuffer h = ch.map(FileChannel.MapMode.READ_ONLY,0,FrameRecorder.HEADER);
+        h.order(ByteOrder.LITTLE_ENDIAN);
+        if(h.getInt() != FrameRecorder.MAGIC || h.getInt() != FrameRecorder.VERSION){
+            ch.close();
+            throw new IOException(file+" is not a frame recording");
+        }
+        NX = h.getInt(); NY = h.getInt();
+        long count = h.getLong();
+        float dt = h.getFloat(), diff = h.getFloat(), visc = h.getFloat();
+        params = new SimParams(diff,visc,dt,h.getFloat(),h.getFloat());
+        cells = (NX+2)*(NY+2);
+        frameBytes = FrameRecorder.FRAME_HEADER + 3L*cells*Float.BYTES;
+        // a recording cut short keeps the count of its last header update; trust only whole frames
+        frames = (int)Math.min(count,(ch.size()-FrameRecorder.HEADER)/frameBytes);
+    }
+
+    void read(int k,FieldSnapshot into) throws IOException {
+        if(k < 0 || k >= frames) throw new IndexOutOfBoundsException("frame "+k+" of "+frames);
+        MappedByteBuffer b = ch.map(FileChannel.MapMode.READ_ONLY,FrameRecorder.HEADER + k*frameBytes,frameBytes);
+        b.order(ByteOrder.LITTLE_ENDIAN);
+        into.step = b.getLong(0);
+        into.dt = b.getFloat(8);
+        b.position(FrameRecorder.FRAME_HEADER);
+        FloatBuffer in = b.asFloatBuffer();
+        in.get(into.density,0,cells); in.get(into.Vx,0,cells); in.get(into.Vy,0,cells);
+    }
+
+    @Override
+    public void close() throws IOException { ch.close(); }
+}
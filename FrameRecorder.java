@@ -0,0 +1,127 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ArrayBlockingQueue;
+
+// Streams density, Vx and Vy after each recorded step into a memory-mapped file. The solver thread
+// only copies the fields into a free snapshot and queues it; a background thread writes the
+// snapshots into the mapping. When all buffers are in flight the frame is dropped (and counted)
+// rather than stalling step(); frames carry their step number, so gaps show up on replay.
+//
+// File layout, little-endian:
+//   header, HEADER bytes: magic, version, NX, NY, frame count, then dt, diff, visc, densityAmount,
+//                         velocityAmount of the parameters at the start of the recording
+//   frame k at HEADER + k*frameBytes: long step, float dt, int 0, then density, Vx, Vy as
+//                         (NX+2)*(NY+2) floats each, row-major with ghost cells, whatever the layout
+final class FrameRecorder implements AutoCloseable {
+    static final int MAGIC = 0x4E535246;        // "NSRF"
+    static final int VERSION = 1;
+    static final int HEADER = 64, FRAME_HEADER = 16;
+    static final int COUNT_OFFSET = 16;
+    private static final long WINDOW = 64L << 20;  // bytes mapped at a time, rounded down to whole frames
+
+    final int NX, NY, cells;
+    final long frameBytes;
+    long frames;                    // written so far, writer thread only until close()
+    volatile long dropped;          // frames skipped because the writer fell behind
+
+    private final FieldLayout layout;
+    private final FileChannel ch;
+    private final MappedByteBuffer header;
+    private final ArrayBlockingQueue<FieldSnapshot> free, full;
+    private final FieldSnapshot end = new FieldSnapshot(0);
+    private final Thread writer;
+    private final float[] scratch;  // row-major copy for other layouts
+    private MappedByteBuffer window;
+    private long windowStart, windowEnd;
+    private volatile IOException failure;
+
+    FrameRecorder(FluidEngine sim,Path file,int buffers) throws IOException {
+        NX = sim.NX; NY = sim.NY; cells = (NX+2)*(NY+2);
+        frameBytes = FRAME_HEADER + 3L*cells*Float.BYTES;
+        layout = sim.layout;
+        scratch = layout.rowMajor() ? null : new float[cells];
+        ch = FileChannel.open(file,StandardOpenOption.CREATE,StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.READ,StandardOpenOption.WRITE);
+        header = ch.map(FileChannel.MapMode.READ_WRITE,0,HEADER);
+        header.order(ByteOrder.LITTLE_ENDIAN);
+        SimParams p = sim.params.get();
+        header.putInt(MAGIC).putInt(VERSION).putInt(NX).putInt(NY).putLong(0)
+              .putFloat(p.dt()).putFloat(p.diff()).putFloat(p.visc()).putFloat(p.densityAmount()).putFloat(p.velocityAmount());
+
+        free = new ArrayBlockingQueue<>(buffers);
+        full = new ArrayBlockingQueue<>(buffers+1);
+        for(int k=0;k<buffers;k++) free.add(new FieldSnapshot(sim.size));
+        writer = new Thread(this::drain,"frame recorder");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    // Called by the solver thread after a step; never waits for the disk.
+    boolean offer(FluidEngine sim){
+        if(failure != null) throw new UncheckedIOException(failure);
+        FieldSnapshot f = free.poll();
+        if(f == null){ dropped++; return false; }
+        f.copyFrom(sim);
+        full.add(f);
+        return true;
+    }
+
+    private void drain(){
+        try {
+            for(FieldSnapshot f; (f = full.take()) != end; ){
+                write(f);
+                free.add(f);
+            }
+        } catch(IOException e){
+            failure = e;
+        } catch(InterruptedException e){
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void write(FieldSnapshot f) throws IOException {
+        long pos = HEADER + frames*frameBytes;
+        if(pos+frameBytes > windowEnd){
+            long length = Math.max(1,WINDOW/frameBytes)*frameBytes;
+            window = ch.map(FileChannel.MapMode.READ_WRITE,pos,length);
+            window.order(ByteOrder.LITTLE_ENDIAN);
+            windowStart = pos; windowEnd = pos+length;
+        }
+        int off = (int)(pos-windowStart);
+        window.putLong(off,f.step).putFloat(off+8,f.dt).putInt(off+12,0);
+        window.position(off+FRAME_HEADER);
+        FloatBuffer out = window.asFloatBuffer();
+        put(out,f.density); put(out,f.Vx); put(out,f.Vy);
+        frames++;
+        header.putLong(COUNT_OFFSET,frames);
+    }
+
+    private void put(FloatBuffer out,float[] field){
+        if(scratch == null){ out.put(field,0,cells); return; }
+        for(int j=0,k=0;j<NY+2;j++)
+            for(int i=0;i<NX+2;i++) scratch[k++] = field[layout.index(i,j)];
+        out.put(scratch);
+    }
+
+    // Writes out the queued frames and trims the file to the frames written.
+    @Override
+    public void close() throws IOException {
+        try {
+            full.put(end);
+            writer.join();
+        } catch(InterruptedException e){
+            Thread.currentThread().interrupt();
+        }
+        window = null;
+        header.force();
+        ch.truncate(HEADER + frames*frameBytes);
+        ch.close();
+        if(failure != null) throw failure;
+    }
+}
@@ -0,0 +1,52 @@
+import java.awt.Color;
+import java.awt.Graphics2D;
+
+// Turns fields into pixels, for the viewer and for FrameExporter.
+final class FrameRenderer {
+    static final int[] GREY = new int[256];     // density 0..255 -> opaque ARGB
+    static { for(int c=0;c<256;c++) GREY[c] = 0xFF000000 | c*0x010101; }
+
+    private FrameRenderer(){}
+
+    // density as grey, one pixel per cell ghost cells included, row-major (NX+2) pixels wide;
+    // parallel splits the rows over the shared pool
+    static void fillDensity(FluidEngine sim,float[] density,int[] pixels,boolean parallel){
+        int w = sim.NX+2;
+        boolean direct = sim.layout.rowMajor();
+        Parallel.RowBody rows = (j0,j1) -> {
+            if(direct)
+                for(int id=j0*w;id<j1*w;id++)
+                    pixels[id] = GREY[Math.max(0,Math.min(255,(int)density[id]))];
+            else
+                for(int j=j0;j<j1;j++)
+                    for(int i=0;i<w;i++)
+                        pixels[i+w*j] = GREY[Math.max(0,Math.min(255,(int)density[sim.IX(i,j)]))];
+        };
+        if(parallel) Parallel.forRows(0,sim.NY+2,rows);
+        else rows.rows(0,sim.NY+2);
+    }
+
+    // solid cells in a flat blue-grey over whatever fillDensity put there
+    static void fillObstacles(Obstacles o,int[] pixels){
+        int w = o.NX+2;
+        for(int k=0;k<o.mask.length;k++)
+            for(long bits = o.mask[k]; bits != 0; bits &= bits-1){
+                int bit = 64*k + Long.numberOfTrailingZeros(bits);
+                pixels[bit%o.NX+1 + w*(bit/o.NX+1)] = 0xFF506478;
+            }
+    }
+
+    // a red line every 8 cells from the cell centre along the velocity, length pixels per unit;
+    // sx, sy are pixels per cell
+    static void drawVelocity(Graphics2D g,FluidEngine sim,FieldSnapshot f,float sx,float sy,float length){
+        g.setColor(Color.RED);
+        int stride = 8;
+        for(int j=1;j<=sim.NY;j+=stride)
+            for(int i=1;i<=sim.NX;i+=stride){
+                int x=(int)(i*sx),y=(int)(j*sy);
+                float vx=f.Vx[sim.IX(i,j)], vy=f.Vy[sim.IX(i,j)];
+                int ex=(int)(x+vx*length), ey=(int)(y+vy*length);
+                g.drawLine(x,y,ex,ey);
+            }
+    }
+}
@@ -0,0 +1,61 @@
+// Lexicographic Gauss-Seidel, single threaded; the original solver. With a tolerance the
+// residual is taken from the sweep itself: at the moment a cell is relaxed its residual is
+// c times the change applied to it.
+public class GaussSeidelSolver implements LinearSolver {
+    @Override
+    public int solve(FluidEngine sim,int b,float[] x,float[] x0,float a,float c,int maxIter,float tol){
+        int NY = sim.NY;
+        double limit = tol > 0 ? tol*norm(sim,x0) : -1;
+        for(int k=0;k<maxIter;k++){
+            double rr = 0;
+            for(int j=1;j<=NY;j++){
+                int[] r = sim.runs(j);
+                for(int q=0;q<r.length;q+=2)
+                    for(int i=r[q];i<r[q+1];i++){
+                        int id = sim.IX(i,j);
+                        float v = (x0[id] + a*(x[sim.IX(i-1,j)] + x[sim.IX(i+1,j)] + x[sim.IX(i,j-1)] + x[sim.IX(i,j+1)]))/c;
+                        if(limit >= 0){ float d = c*(v-x[id]); rr += d*d; }
+                        x[id] = v;
+                    }
+            }
+            sim.setBnd(b,x);
+            if(Math.sqrt(rr) <= limit) return k+1;
+        }
+        return maxIter;
+    }
+
+    // every field relaxed at each cell in the same sweep
+    @Override
+    public int solve(FluidEngine sim,int[] b,float[][] x,float[][] x0,float a,float c,int maxIter,float tol){
+        int NY = sim.NY, n = x.length;
+        double limit = tol > 0 ? tol*norm(sim,x0) : -1;
+        for(int k=0;k<maxIter;k++){
+            double rr = 0;
+            for(int j=1;j<=NY;j++){
+                int[] r = sim.runs(j);
+                for(int q=0;q<r.length;q+=2)
+                    for(int i=r[q];i<r[q+1];i++){
+                        int id = sim.IX(i,j), w = sim.IX(i-1,j), e = sim.IX(i+1,j), s = sim.IX(i,j-1), nb = sim.IX(i,j+1);
+                        for(int f=0;f<n;f++){
+                            float[] xf = x[f];
+                            float v = (x0[f][id] + a*(xf[w] + xf[e] + xf[s] + xf[nb]))/c;
+                            if(limit >= 0){ float d = c*(v-xf[id]); rr += d*d; }
+                            xf[id] = v;
+                        }
+                    }
+            }
+            sim.setBnd(b,x);
+            if(Math.sqrt(rr) <= limit) return k+1;
+        }
+        return maxIter;
+    }
+
+    // interior norm of the stacked fields, through IX so it holds for any layout
+    static double norm(FluidEngine sim,float[]... v){
+        double sum = 0;
+        for(float[] f : v)
+            for(int j=1;j<=sim.NY;j++)
+                for(int i=1;i<=sim.NX;i++){ float e = f[sim.IX(i,j)]; sum += (double)e*e; }
+        return Math.sqrt(sum);
+    }
+}
@@ -0,0 +1,26 @@
+// IEEE 754 binary16 conversions (Float.floatToFloat16 and its inverse arrived only in Java 20).
+// Decoding rebiases the exponent with one multiply, which also covers subnormals; encoding
+// rounds to nearest, ties away from zero, and saturates to infinity above 65504.
+final class Half {
+    private Half(){}
+
+    static float toFloat(short h){
+        int m = (h & 0x7fff) << 13;
+        float v = Float.intBitsToFloat(m) * 0x1p112f;       // 2^(127-15)
+        if(m >= 0x0f800000) v = (h & 0x3ff) == 0 ? Float.POSITIVE_INFINITY : Float.NaN;
+        return h < 0 ? -v : v;
+    }
+
+    static short fromFloat(float f){
+        int bits = Float.floatToRawIntBits(f);
+        int sign = (bits >>> 16) & 0x8000;
+        int abs = bits & 0x7fffffff;
+        if(abs >= 0x7f800000) return (short)(sign | 0x7c00 | (abs > 0x7f800000 ? 0x200 : 0));     // inf, NaN
+        int val = abs + 0x1000;                         // half an ulp of the 10-bit mantissa
+        if(val >= 0x47800000) return (short)(sign | 0x7c00);                                    // overflow
+        if(val >= 0x38800000) return (short)(sign | ((val - 0x38000000) >>> 13));               // normal
+        if(abs < 0x33000000) return (short)sign;                                                // underflow
+        int e = abs >>> 23;                                                                     // subnormal
+        return (short)(sign | ((((abs & 0x7fffff) | 0x800000) + (0x800000 >>> (e-102))) >>> (126-e)));
+    }
+}
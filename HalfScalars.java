@@ -0,0 +1,106 @@
+import java.util.Arrays;
+
+// Half-precision storage for density, in place of the engine's float density and s: d holds the
+// density packed between steps too, s the diffusion result. Diffusion relaxes s against d,
+// advection gathers from s into d, and sources are added to d cell by cell, so every density pass
+// of a step streams 2 bytes per cell instead of 4 and the two arrays take half the memory of the
+// float pair. Arithmetic stays in float; each stored value carries binary16's 11-bit precision
+// (relative error up to 2^-11). Readers outside the step decode through FluidEngine.copyDensity.
+// Diffusion is always Gauss-Seidel, whatever solver the velocity uses, and honours maxIter and tol
+// as GaussSeidelSolver does.
+final class HalfScalars {
+    final short[] d, s;             // packed density and diffusion scratch, in the engine's layout
+
+    HalfScalars(int size){ d = new short[size]; s = new short[size]; }
+
+    void add(int id,float amount){ d[id] = Half.fromFloat(Half.toFloat(d[id]) + amount); }
+
+    void decode(float[] into){ for(int id=0;id<d.length;id++) into[id] = Half.toFloat(d[id]); }
+
+    void encode(float[] from){ for(int id=0;id<d.length;id++) d[id] = Half.fromFloat(from[id]); }
+
+    void clear(){ Arrays.fill(d,(short)0); Arrays.fill(s,(short)0); }
+
+    // Gauss-Seidel on s with right-hand side d, from zero, as GaussSeidelSolver does for floats. The
+    // west neighbour is the value just relaxed, kept in float rather than decoded again, which takes
+    // the encode and decode off the sweep's dependency chain.
+    int diffuse(FluidEngine sim,float diff,float dt){
+        int N = sim.N, NY = sim.NY;
+        float a = dt*diff*N*N, c = 1+4*a;
+        int iters = sim.maxIter > 0 ? sim.maxIter : 20;
+        double limit = sim.tol > 0 ? sim.tol*norm(sim,d) : -1;
+        Arrays.fill(s,(short)0);
+        // idle tiles keep their density undiffused, as FluidEngine.diffuse does
+        sim.forIdle((i0,i1,j0,j1) -> System.arraycopy(d,sim.IX(i0,j0),s,sim.IX(i0,j0),i1-i0));
+        for(int k=0;k<iters;k++){
+            double rr = 0;
+            for(int j=1;j<=NY;j++){
+                int[] r = sim.runs(j);
+                for(int q=0;q<r.length;q+=2){
+                    float west = Half.toFloat(s[sim.IX(r[q]-1,j)]);
+                    for(int i=r[q];i<r[q+1];i++){
+                        int id = sim.IX(i,j);
+                        float sum = west + Half.toFloat(s[sim.IX(i+1,j)])
+                                  + Half.toFloat(s[sim.IX(i,j-1)]) + Half.toFloat(s[sim.IX(i,j+1)]);
+                        west = (Half.toFloat(d[id]) + a*sum)/c;
+                        if(limit >= 0){ float e = c*(west-Half.toFloat(s[id])); rr += e*e; }
+                        s[id] = Half.fromFloat(west);
+                    }
+                }
+            }
+            setBnd(sim,s);
+            if(Math.sqrt(rr) <= limit) return k+1;
+        }
+        return iters;
+    }
+
+    // d = s carried along the velocity, as ScalarKernels.advect
+    void advect(FluidEngine sim,float[] velocX,float[] velocY,float dt){
+        float dt0 = dt*sim.N;
+        int NX = sim.NX, NY = sim.NY;
+        sim.forActive((i0,i1,j0,j1) -> {
+            for(int j=j0;j<j1;j++)
+                for(int i=i0;i<i1;i++){
+                    float x = i - dt0*velocX[sim.IX(i,j)];
+                    float y = j - dt0*velocY[sim.IX(i,j)];
+                    x = Math.max(0.5f,Math.min(NX+0.5f,x));
+                    y = Math.max(0.5f,Math.min(NY+0.5f,y));
+                    int ia = (int)Math.floor(x), ib = ia+1;
+                    int ja = (int)Math.floor(y), jb = ja+1;
+                    float s1 = x-ia, s0 = 1-s1, t1 = y-ja, t0 = 1-t1;
+                    d[sim.IX(i,j)] = Half.fromFloat(s0*(t0*Half.toFloat(s[sim.IX(ia,ja)]) + t1*Half.toFloat(s[sim.IX(ia,jb)]))
+                                                  + s1*(t0*Half.toFloat(s[sim.IX(ib,ja)]) + t1*Half.toFloat(s[sim.IX(ib,jb)])));
+                }
+        });
+        // nothing moves in an idle tile
+        sim.forIdle((i0,i1,j0,j1) -> System.arraycopy(s,sim.IX(i0,j0),d,sim.IX(i0,j0),i1-i0));
+        setBnd(sim,d);
+    }
+
+    // FluidEngine.setBnd(0, x): ghosts copy their neighbour, corners average two ghosts
+    static void setBnd(FluidEngine sim,short[] x){
+        int NX = sim.NX, NY = sim.NY;
+        for(int j=1;j<=NY;j++){
+            x[sim.IX(0,j)] = x[sim.IX(1,j)];
+            x[sim.IX(NX+1,j)] = x[sim.IX(NX,j)];
+        }
+        for(int i=1;i<=NX;i++){
+            x[sim.IX(i,0)] = x[sim.IX(i,1)];
+            x[sim.IX(i,NY+1)] = x[sim.IX(i,NY)];
+        }
+        x[sim.IX(0,0)] = avg(x[sim.IX(1,0)],x[sim.IX(0,1)]);
+        x[sim.IX(0,NY+1)] = avg(x[sim.IX(1,NY+1)],x[sim.IX(0,NY)]);
+        x[sim.IX(NX+1,0)] = avg(x[sim.IX(NX,0)],x[sim.IX(NX+1,1)]);
+        x[sim.IX(NX+1,NY+1)] = avg(x[sim.IX(NX,NY+1)],x[sim.IX(NX+1,NY)]);
+    }
+
+    private static short avg(short p,short q){ return Half.fromFloat(0.5f*(Half.toFloat(p)+Half.toFloat(q))); }
+
+    // interior norm of x, for the tolerance
+    private static double norm(FluidEngine sim,short[] x){
+        double sum = 0;
+        for(int j=1;j<=sim.NY;j++)
+            for(int i=1;i<=sim.NX;i++){ float e = Half.toFloat(x[sim.IX(i,j)]); sum += (double)e*e; }
+        return Math.sqrt(sum);
+    }
+}
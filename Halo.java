@@ -0,0 +1,71 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.SocketChannel;
+
+// Overlap exchange between the slabs of a distributed run (see Distributed). Next to each
+// neighbour a slab's engine carries depth extra rows plus its ghost row, all copies of rows the
+// neighbour owns; whenever setBnd runs, i.e. after every solver sweep, those depth+1 rows are
+// overwritten with the neighbour's values, wall columns included. The copies let advection trace
+// back up to depth rows across the edge. Even slabs trade with the slab below first and odd ones
+// with the slab above, one side sending while the other reads, so no exchange waits on socket
+// buffer space however wide the rows.
+final class Halo {
+    private final SocketChannel up, down;           // slabs holding lower / higher rows; null at the walls
+    final int depth;
+    private final boolean even;                     // slab index parity
+    private ByteBuffer out, in;
+
+    long exchanges, nanos;                          // calls and time spent in them, waiting included
+
+    Halo(SocketChannel up,SocketChannel down,int depth,boolean even){
+        this.up = up; this.down = down; this.depth = depth; this.even = even;
+    }
+
+    void exchange(FluidEngine sim,float[]... x){
+        long t0 = System.nanoTime();
+        int w = sim.NX+2, h = depth+1, bytes = w*h*x.length*4, NY = sim.NY;
+        if(out == null || out.capacity() < bytes){
+            out = ByteBuffer.allocateDirect(bytes).order(ByteOrder.nativeOrder());
+            in = ByteBuffer.allocateDirect(bytes).order(ByteOrder.nativeOrder());
+        }
+        try {
+            // the first and last h rows owned here go out, the neighbours' come into rows 0..depth
+            // and NY-depth+1..NY+1
+            if(even){
+                if(down != null){ send(down,x,sim.IX(0,NY-depth-h+1),w*h); receive(down,x,sim.IX(0,NY-depth+1),w*h); }
+                if(up != null){ receive(up,x,sim.IX(0,0),w*h); send(up,x,sim.IX(0,h),w*h); }
+            }
+            else {
+                if(up != null){ receive(up,x,sim.IX(0,0),w*h); send(up,x,sim.IX(0,h),w*h); }
+                if(down != null){ send(down,x,sim.IX(0,NY-depth-h+1),w*h); receive(down,x,sim.IX(0,NY-depth+1),w*h); }
+            }
+        }
+        catch(IOException e){ throw new UncheckedIOException(e); }
+        exchanges++;
+        nanos += System.nanoTime()-t0;
+    }
+
+    // len cells from offset of each field, in order; rows are contiguous in the row-major layout
+    private void send(SocketChannel ch,float[][] x,int offset,int len) throws IOException {
+        out.clear();
+        for(float[] f : x){
+            out.asFloatBuffer().put(f,offset,len);
+            out.position(out.position()+len*4);
+        }
+        out.flip();
+        while(out.hasRemaining()) ch.write(out);
+    }
+
+    private void receive(SocketChannel ch,float[][] x,int offset,int len) throws IOException {
+        in.clear().limit(len*x.length*4);
+        while(in.hasRemaining())
+            if(ch.read(in) < 0) throw new IOException("neighbouring slab closed its connection");
+        in.flip();
+        for(float[] f : x){
+            in.asFloatBuffer().get(f,offset,len);
+            in.position(in.position()+len*4);
+        }
+    }
+}
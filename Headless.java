@@ -0,0 +1,143 @@
+import java.io.IOException;
+import java.nio.file.Path;
+
+// Runs the solver without any display and reports throughput. Options as in SimConfig, e.g.
+//   java Headless [--nx=256 --ny=256 | --n=256] [--steps=500] [--solver=gs|rb|cg-jacobi|cg-ic]
+//                 [--pressure=mg-v|mg-f|...] [--precision=float|mixed|double]
+//                 [--stencil=scalar|vector] [--layout=rowmajor|tiled]
+//                 [--max-iter=0] [--tol=0] [--warm-start=true] [--cfl=0 [--max-substeps=16]]
+//                 [--threads=0] [--grain=32] [--active-threshold[=5e-5]] [--half-scalars] [--verify]
+//                 [--obstacles=cylinder|mask.png]
+//                 [--record=file [--record-every=1] [--record-buffers=8]]
+//                 [--export=dir [--export-size=WxH] [--export-arrows] [--export-every=1] [--export-threads=0]]
+//                 [--jmx[=domain]] [--restore=file] [--checkpoint=file [--checkpoint-every=0] [--compress]] [--config=file]
+// --verify checks single steps of a tile-skipping or fp16 run against the same step taken without them.
+// --half-scalars diffuses density with Gauss-Seidel whatever --solver says (--max-iter and --tol apply).
+public class Headless {
+
+    // deterministic stand-in for the mouse: a swaying plume rising from the bottom centre
+    static void force(FluidEngine sim){ force(sim,sim.NY,0); }
+
+    // the same for a slab holding rows row0+1 .. row0+sim.NY of a grid ny rows high
+    static void force(FluidEngine sim,int ny,int row0){
+        int cx = sim.NX/2, cy = ny - ny/8 - row0;
+        if(cy < 1 || cy > sim.NY) return;
+        float sway = (float)Math.sin(sim.stepCount*0.05)*0.25f;
+        SimParams p = sim.params.get();
+        sim.addDensity(cx,cy,p.densityAmount()*p.dt());
+        sim.addVelocity(cx,cy,sway*p.velocityAmount()*p.dt(),-p.velocityAmount()*p.dt());
+    }
+
+    public static void main(String[] args) throws IOException {
+        System.setProperty("java.awt.headless","true");     // frame export renders without a display
+        SimConfig cfg = SimConfig.parse(args);
+        if(cfg.verify){ verify(cfg); return; }
+        FluidEngine sim = cfg.newEngine();
+        FrameRecorder rec = cfg.newRecorder(sim);
+        FrameExporter export = cfg.newExporter(sim);
+        int steps = cfg.steps;
+
+        long[] iters = new long[sim.solveIters.length];
+        long activeTiles = 0, substeps = 0;
+        int maxSubsteps = 0;
+        long t0 = System.nanoTime();
+        for(int k=0;k<steps;k++){
+            force(sim);
+            sim.step();
+            for(int q=0;q<iters.length;q++) iters[q] += sim.solveIters[q];
+            if(sim.active != null) activeTiles += sim.active.count;
+            substeps += sim.substeps;
+            maxSubsteps = Math.max(maxSubsteps,sim.substeps);
+            if(rec != null && sim.stepCount%cfg.recordEvery == 0) rec.offer(sim);
+            if(export != null && sim.stepCount%cfg.exportEvery == 0) export.offer(sim);
+            if(cfg.checkpoint != null && cfg.checkpointEvery > 0 && sim.stepCount%cfg.checkpointEvery == 0)
+                Checkpoint.save(sim,Path.of(cfg.checkpoint),cfg.compress);
+        }
+        double secs = (System.nanoTime()-t0)/1e9;
+        if(export != null){
+            export.close();
+            System.out.printf("exported %d %dx%d frames to %s in %.3fs%n",
+                    export.frames, export.width, export.height, cfg.export, (System.nanoTime()-t0)/1e9);
+        }
+        if(rec != null){
+            rec.close();
+            System.out.printf("recorded %d frames to %s (%d dropped)%n",rec.frames,cfg.record,rec.dropped);
+        }
+        System.out.printf("%dx%d solver=%s steps=%d time=%.3fs %.1f steps/s %.2f ns/cell/step%n",
+                sim.NX, sim.NY, cfg.solver, steps, secs, steps/secs, secs*1e9/steps/((double)sim.NX*sim.NY));
+        System.out.printf("mean iterations per solve: diffuse x %.1f, diffuse y %.1f, project %.1f / %.1f, diffuse density %.1f%n",
+                iters[0]/(double)steps, iters[1]/(double)steps, iters[2]/(double)steps, iters[3]/(double)steps, iters[4]/(double)steps);
+        if(sim.cfl > 0)
+            System.out.printf("substeps per step: mean %.2f, max %d (cfl %.2f)%n",substeps/(double)steps,maxSubsteps,sim.cfl);
+        if(sim.active != null)
+            System.out.printf("active tiles: %.1f%% on average%n",100.0*activeTiles/steps/(sim.active.tx*sim.active.ty));
+        if(cfg.checkpoint != null){
+            long c0 = System.nanoTime();
+            long bytes = Checkpoint.save(sim,Path.of(cfg.checkpoint),cfg.compress);
+            System.out.printf("checkpoint at step %d: %.1f MB in %.3fs to %s%n",
+                    sim.stepCount, bytes/1e6, (System.nanoTime()-c0)/1e9, cfg.checkpoint);
+        }
+        if(sim.metrics != null)
+            for(PhaseTimer t : sim.metrics.timers)
+                if(t.getCount() > 0)
+                    System.out.printf("  %-18s mean %10.1f us  p50 %10.1f  p99 %10.1f  max %10.1f%n",
+                            t.name, t.getMeanMicros(), t.getP50Micros(), t.getP99Micros(), t.getMaxMicros());
+        LinearSolver ps = sim.pressureSolver != null ? sim.pressureSolver : sim.solver;
+        if(ps instanceof RefinedSolver){
+            RefinedSolver rs = (RefinedSolver)ps;
+            System.out.printf("pressure: %d refinements, %d inner iterations, relative residual %.2e (double)%n",
+                    rs.refinements, rs.innerIterations, rs.residual);
+            ps = rs.inner;
+        }
+        if(ps instanceof MultigridSolver){
+            MultigridSolver mg = (MultigridSolver)ps;
+            System.out.printf("pressure: %d cycles, relative residual %.2e%n", mg.cycles, mg.residual);
+        } else if(ps instanceof ConjugateGradientSolver){
+            ConjugateGradientSolver cg = (ConjugateGradientSolver)ps;
+            System.out.printf("pressure: %d iterations, relative residual %.2e%n", cg.iterations, cg.residual);
+        }
+    }
+
+    // Steps the configured engine and, every 25 steps, also takes one reference step from the same
+    // state without tile skipping or fp16, comparing density and velocity relative to the largest
+    // magnitude of the reference. The flow is chaotic, so whole runs drift apart from any
+    // perturbation; only the error a single step introduces is checked. Exits with status 1 when
+    // it exceeds 1e-2. Skipping is switched on at the default threshold when neither option is given.
+    static void verify(SimConfig cfg) throws IOException {
+        FluidEngine sparse = cfg.newEngine();
+        FluidEngine dense = cfg.configure(new FluidEngine(sparse.NX,sparse.NY,FieldLayout.named(cfg.layout,sparse.NX,sparse.NY)));
+        if(sparse.active == null && sparse.half == null) sparse.active = new ActiveTiles(sparse.NX,sparse.NY,ActiveTiles.DEFAULT_THRESHOLD);
+        dense.active = null;
+        float[] density = new float[sparse.size];
+        double worst = 0;
+        for(int k=1;k<=cfg.steps;k++){
+            force(sparse);
+            boolean check = k%25 == 0 || k == cfg.steps;
+            if(check){
+                sparse.copyDensity(dense.density);
+                for(float[][] f : new float[][][]{{sparse.Vx,dense.Vx},{sparse.Vy,dense.Vy}})
+                    System.arraycopy(f[0],0,f[1],0,sparse.size);
+                for(int q=0;q<sparse.pressure.length;q++) System.arraycopy(sparse.pressure[q],0,dense.pressure[q],0,sparse.size);
+                dense.step();
+            }
+            sparse.step();
+            if(!check) continue;
+            sparse.copyDensity(density);
+            double ed = relDiff(density,dense.density), ev = Math.max(relDiff(sparse.Vx,dense.Vx),relDiff(sparse.Vy,dense.Vy));
+            String tiles = sparse.active == null ? "" : String.format("active tiles %d/%d, ",sparse.active.count,sparse.active.tx*sparse.active.ty);
+            System.out.printf("step %d: %sone-step difference density %.2e velocity %.2e%n",k,tiles,ed,ev);
+            worst = Math.max(worst,Math.max(ed,ev));
+        }
+        System.out.println(worst <= 1e-2 ? "verify: ok" : "verify: FAILED");
+        if(worst > 1e-2) System.exit(1);
+    }
+
+    static double relDiff(float[] a,float[] b){
+        double diff = 0, max = 0;
+        for(int id=0;id<a.length;id++){
+            diff = Math.max(diff,Math.abs(a[id]-b[id]));
+            max = Math.max(max,Math.abs(b[id]));
+        }
+        return max > 0 ? diff/max : diff;
+    }
+}
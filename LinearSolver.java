@@ -0,0 +1,36 @@
+// Solves c*x - a*(sum of the four neighbours of x) = x0 over the interior cells; this is the
+// system behind both diffuse() and the pressure solve in project(). Implementations refresh
+// the ghost cells with sim.setBnd(b,x) as they iterate.
+public interface LinearSolver {
+    // Runs at most maxIter iterations (sweeps, cycles, ...), stopping early once the residual
+    // norm falls below tol times the norm of x0; tol <= 0 always runs maxIter. Returns the
+    // number of iterations performed.
+    int solve(FluidEngine sim,int b,float[] x,float[] x0,float a,float c,int maxIter,float tol);
+
+    // The same system for several fields at once, e.g. both velocity components in diffuse();
+    // b[f] is the boundary type of x[f]. Solvers that fuse the fields into one sweep stop on the
+    // residual of the stacked system; this fallback solves them one after the other. Returns the
+    // largest iteration count.
+    default int solve(FluidEngine sim,int[] b,float[][] x,float[][] x0,float a,float c,int maxIter,float tol){
+        int iters = 0;
+        for(int f=0;f<x.length;f++) iters = Math.max(iters,solve(sim,b[f],x[f],x0[f],a,c,maxIter,tol));
+        return iters;
+    }
+
+    // used when FluidEngine.maxIter / tol are left at 0
+    default int defaultMaxIter(){ return 20; }
+    default float defaultTol(){ return 0f; }
+
+    static LinearSolver named(String name){
+        switch(name){
+            case "gs": return new GaussSeidelSolver();
+            case "rb": return new RedBlackSolver();
+            case "rb-simd": return (LinearSolver)Reflect.instantiate("VectorRedBlackSolver");
+            case "mg-v": return new MultigridSolver(false);
+            case "mg-f": return new MultigridSolver(true);
+            case "cg-jacobi": return new ConjugateGradientSolver(ConjugateGradientSolver.Preconditioner.JACOBI);
+            case "cg-ic": return new ConjugateGradientSolver(ConjugateGradientSolver.Preconditioner.IC);
+            default: throw new IllegalArgumentException("unknown solver: "+name);
+        }
+    }
+}
@@ -0,0 +1,161 @@
+import java.util.Arrays;
+
+// Geometric multigrid on the cell-centred grid: red-black Gauss-Seidel smoothing, 2x2 averaging
+// restriction, bilinear prolongation and a rediscretised coarse operator (a/4, c-3a per level).
+// Cycles are repeated until the residual, relative to the right-hand side, drops below the
+// tolerance (1e-4 by default), which takes a handful of O(N^2) cycles independent of N.
+// Grids coarsen while both sides are even, so sides with a large power-of-two factor work best.
+public class MultigridSolver implements LinearSolver {
+    final boolean fCycle;
+    int pre = 2, post = 2;
+
+    int cycles;             // cycles used by the last solve
+    double residual;        // relative residual after the last solve
+
+    private int levelsNX = -1, levelsNY = -1;
+    private int[] nx, ny;             // interior size per level, 0 = finest
+    private float[][] x, rhs, r;      // level 0 x/rhs are the caller's arrays
+    private float[] a, c;
+    private boolean singular;         // pure Neumann pressure: constants are in the null space
+
+    public MultigridSolver(boolean fCycle){ this.fCycle = fCycle; }
+
+    @Override
+    public int solve(FluidEngine sim,int b,float[] x0,float[] rhs0,float a0,float c0,int maxCycles,float tol){
+        ensureLevels(sim.NX,sim.NY);
+        x[0] = x0; rhs[0] = rhs0;
+        a[0] = a0; c[0] = c0;
+        for(int l=1;l<nx.length;l++){ a[l] = a[l-1]/4; c[l] = c[l-1]-3*a[l-1]; }
+
+        singular = b == 0 && c0 == 4*a0;
+        double rhsNorm = norm(rhs0,nx[0],ny[0]);
+        cycles = 0; residual = 0;
+        if(rhsNorm == 0){ Arrays.fill(x0,0f); return 0; }      // x0 may hold a warm start
+        double prev = Double.MAX_VALUE;
+        while(cycles < maxCycles){
+            cycle(sim,0,b,fCycle);
+            cycles++;
+            residual = residual(0)/rhsNorm;
+            if(residual < tol || residual > 0.9*prev) break;    // converged, or stalled on float round-off
+            prev = residual;
+        }
+        return cycles;
+    }
+
+    @Override public float defaultTol(){ return 1e-4f; }
+
+    private void ensureLevels(int NX,int NY){
+        if(levelsNX == NX && levelsNY == NY) return;
+        int count = 1;
+        for(int mx=NX,my=NY; mx%2==0 && my%2==0 && mx>=8 && my>=8; mx/=2,my/=2) count++;
+        nx = new int[count]; ny = new int[count];
+        x = new float[count][]; rhs = new float[count][]; r = new float[count][];
+        a = new float[count]; c = new float[count];
+        for(int l=0,mx=NX,my=NY;l<count;l++,mx/=2,my/=2){
+            nx[l] = mx; ny[l] = my;
+            int size = (mx+2)*(my+2);
+            r[l] = new float[size];
+            if(l > 0){ x[l] = new float[size]; rhs[l] = new float[size]; }
+        }
+        levelsNX = NX; levelsNY = NY;
+    }
+
+    private void cycle(FluidEngine sim,int l,int b,boolean f){
+        if(l == nx.length-1){ smooth(sim,l,b,Math.max(20,2*Math.max(nx[l],ny[l]))); return; }
+        smooth(sim,l,b,pre);
+        residual(l);
+        restrict(l);
+        Arrays.fill(x[l+1],0f);
+        cycle(sim,l+1,b,f);
+        if(f) cycle(sim,l+1,b,false);
+        prolong(l,b);
+        // the correction moved the boundary cells; their ghosts must follow before smoothing reads them
+        if(l == 0) sim.setBnd(b,x[l]); else bnd(b,x[l],nx[l],ny[l]);
+        smooth(sim,l,b,post);
+    }
+
+    private void smooth(FluidEngine sim,int l,int b,int sweeps){
+        int mx = nx[l], my = ny[l];
+        float[] xl = x[l], bl = rhs[l];
+        float al = a[l], invC = 1f/c[l];
+        for(int k=0;k<sweeps;k++){
+            Parallel.forRows(1,my+1,(j0,j1) -> RedBlackSolver.sweep(xl,bl,al,invC,mx,0,j0,j1));
+            Parallel.forRows(1,my+1,(j0,j1) -> RedBlackSolver.sweep(xl,bl,al,invC,mx,1,j0,j1));
+            if(l == 0) sim.setBnd(b,xl); else bnd(b,xl,mx,my);
+        }
+    }
+
+    // r = rhs - (c*x - a*sum of neighbours), without its unreachable mean when the system is the
+    // pure Neumann pressure; returns its L2 norm
+    private double residual(int l){
+        int mx = nx[l], my = ny[l], w = mx+2;
+        float[] xl = x[l], bl = rhs[l], rl = r[l];
+        float al = a[l], cl = c[l];
+        Parallel.forRows(1,my+1,(j0,j1) -> {
+            for(int j=j0;j<j1;j++)
+                for(int i=1,id=j*w+1;i<=mx;i++,id++)
+                    rl[id] = bl[id] - (cl*xl[id] - al*(xl[id-1] + xl[id+1] + xl[id-w] + xl[id+w]));
+        });
+        if(singular) ConjugateGradientSolver.removeMean(rl,mx,my);
+        return norm(rl,mx,my);
+    }
+
+    private void restrict(int l){
+        int mx = nx[l+1], my = ny[l+1], w = mx+2, wf = nx[l]+2;
+        float[] rf = r[l], bc = rhs[l+1];
+        for(int J=1;J<=my;J++)
+            for(int I=1;I<=mx;I++){
+                int f = (2*J-1)*wf + 2*I-1;
+                bc[I+w*J] = 0.25f*(rf[f] + rf[f+1] + rf[f+wf] + rf[f+wf+1]);
+            }
+    }
+
+    // x[l] += bilinear interpolation of the coarse correction
+    private void prolong(int l,int b){
+        int mx = nx[l], my = ny[l], w = mx+2, wc = nx[l+1]+2;
+        float[] xf = x[l], xc = x[l+1];
+        bnd(b,xc,nx[l+1],ny[l+1]);
+        Parallel.forRows(1,my+1,(j0,j1) -> {
+            for(int j=j0;j<j1;j++){
+                int J = (j+1)/2, Jn = (j&1)==1 ? J-1 : J+1;
+                for(int i=1;i<=mx;i++){
+                    int I = (i+1)/2, In = (i&1)==1 ? I-1 : I+1;
+                    xf[i+w*j] += 0.5625f*xc[I+wc*J] + 0.1875f*(xc[In+wc*J] + xc[I+wc*Jn]) + 0.0625f*xc[In+wc*Jn];
+                }
+            }
+        });
+    }
+
+    // L2 norm over the interior of an mx by my grid
+    static double norm(float[] v,int mx,int my){
+        int w = mx+2;
+        double sum = 0;
+        for(int j=1;j<=my;j++)
+            for(int i=1,id=j*w+1;i<=mx;i++,id++) sum += (double)v[id]*v[id];
+        return Math.sqrt(sum);
+    }
+
+    // the norm of several fields stacked into one vector
+    static double norm(float[][] v,int mx,int my){
+        double sum = 0;
+        for(float[] f : v){ double n = norm(f,mx,my); sum += n*n; }
+        return Math.sqrt(sum);
+    }
+
+    // FluidEngine.setBnd for an arbitrary mx by my level
+    static void bnd(int b,float[] x,int mx,int my){
+        int w = mx+2;
+        for(int j=1;j<=my;j++){
+            x[w*j] = (b==1)? -x[1+w*j]:x[1+w*j];
+            x[mx+1+w*j] = (b==1)? -x[mx+w*j]:x[mx+w*j];
+        }
+        for(int i=1;i<=mx;i++){
+            x[i] = (b==2)? -x[i+w]:x[i+w];
+            x[i+w*(my+1)] = (b==2)? -x[i+w*my]:x[i+w*my];
+        }
+        x[0] = 0.5f*(x[1]+x[w]);
+        x[w*(my+1)] = 0.5f*(x[1+w*(my+1)]+x[w*my]);
+        x[mx+1] = 0.5f*(x[mx]+x[mx+1+w]);
+        x[mx+1+w*(my+1)] = 0.5f*(x[mx+w*(my+1)]+x[mx+1+w*my]);
+    }
+}
@@ -0,0 +1,120 @@
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import javax.imageio.ImageIO;
+
+// Solid cells inside the grid, as a bitmask with one bit per interior cell (bit (i-1) + NX*(j-1)).
+// Immutable: editors build a new set and publish it through FluidEngine.obstacles. The kernels
+// and solvers run over solid cells like any other; setBnd then overwrites the solid cells, from
+// lists made once per set instead of tests in the hot loops. A solid cell next to fluid takes the
+// mean of its fluid neighbours, as a wall's ghost cell takes its neighbour: negated for the
+// velocity component normal to that face, copied otherwise. Solid cells with no fluid neighbour
+// are held at zero so advection tracing into a body finds nothing there.
+final class Obstacles {
+    final int NX, NY;
+    final long[] mask;
+    final int solid;                    // solid cells
+
+    private final int[] inner;          // IX of solid cells without fluid neighbours
+    private final int[] cell;           // IX of solid cells with fluid neighbours
+    private final int[] start;          // neighbours of cell[k] are nb[start[k] .. start[k+1])
+    private final int[] nb;
+    private final float[][] weight;     // per boundary type b: what each neighbour contributes
+
+    Obstacles(FluidEngine sim,long[] mask){
+        NX = sim.NX; NY = sim.NY;
+        this.mask = mask;
+        int count = 0;
+        for(long m : mask) count += Long.bitCount(m);
+        int[] in = new int[count], c = new int[count], st = new int[count+1], n = new int[4*count];
+        boolean[] xAxis = new boolean[4*count];
+        int ni = 0, nc = 0, nn = 0;
+        // set bits in order, i.e. solid cells row by row
+        for(int w=0;w<mask.length;w++)
+            for(long bits = mask[w]; bits != 0; bits &= bits-1){
+                int bit = 64*w + Long.numberOfTrailingZeros(bits), i = bit%NX+1, j = bit/NX+1;
+                int first = nn;
+                int[][] around = {{i-1,j},{i+1,j},{i,j-1},{i,j+1}};
+                for(int q=0;q<4;q++){
+                    int x = around[q][0], y = around[q][1];
+                    if(x < 1 || x > NX || y < 1 || y > NY || solid(x,y)) continue;
+                    n[nn] = sim.IX(x,y);
+                    xAxis[nn++] = q < 2;
+                }
+                if(nn == first) in[ni++] = sim.IX(i,j);
+                else { st[nc] = first; c[nc++] = sim.IX(i,j); }
+            }
+        st[nc] = nn;
+        solid = count;
+        inner = Arrays.copyOf(in,ni);
+        cell = Arrays.copyOf(c,nc);
+        start = Arrays.copyOf(st,nc+1);
+        nb = Arrays.copyOf(n,nn);
+        weight = new float[3][nn];
+        for(int k=0;k<nc;k++)
+            for(int m=start[k];m<start[k+1];m++){
+                float w = 1f/(start[k+1]-start[k]);
+                weight[0][m] = w;
+                weight[1][m] = xAxis[m] ? -w : w;
+                weight[2][m] = xAxis[m] ? w : -w;
+            }
+    }
+
+    boolean solid(int i,int j){
+        int bit = (i-1) + NX*(j-1);
+        return (mask[bit >>> 6] & (1L << bit)) != 0;
+    }
+
+    // the boundary condition of type b (see FluidEngine.setBnd) on the solid cells of x
+    void apply(int b,float[] x){
+        for(int k=0;k<inner.length;k++) x[inner[k]] = 0f;
+        float[] w = weight[b];
+        for(int k=0;k<cell.length;k++){
+            float v = 0;
+            for(int m=start[k];m<start[k+1];m++) v += w[m]*x[nb[m]];
+            x[cell[k]] = v;
+        }
+    }
+
+    // this set with a disc of radius r around (cx, cy) made solid, or fluid again
+    Obstacles withDisc(FluidEngine sim,int cx,int cy,float r,boolean solid){
+        long[] m = mask.clone();
+        for(int j=Math.max(1,(int)(cy-r));j<=Math.min(NY,(int)Math.ceil(cy+r));j++)
+            for(int i=Math.max(1,(int)(cx-r));i<=Math.min(NX,(int)Math.ceil(cx+r));i++){
+                if((i-cx)*(i-cx) + (j-cy)*(j-cy) > r*r) continue;
+                int bit = (i-1) + NX*(j-1);
+                if(solid) m[bit >>> 6] |= 1L << bit; else m[bit >>> 6] &= ~(1L << bit);
+            }
+        return new Obstacles(sim,m);
+    }
+
+    static Obstacles empty(FluidEngine sim){ return new Obstacles(sim,new long[(sim.NX*sim.NY+63)/64]); }
+
+    // "cylinder": a disc in the path of Headless's plume; anything else is an image file
+    static Obstacles named(FluidEngine sim,String spec) throws IOException {
+        if(spec.equals("cylinder")) return empty(sim).withDisc(sim,sim.NX/2,sim.NY/2,Math.min(sim.NX,sim.NY)/10f,true);
+        return fromImage(sim,Path.of(spec));
+    }
+
+    // the image stretched over the interior, opaque dark pixels (luminance below one half) solid
+    static Obstacles fromImage(FluidEngine sim,Path file) throws IOException {
+        BufferedImage img;
+        try(InputStream in = Files.newInputStream(file)){ img = ImageIO.read(in); }
+        if(img == null) throw new IOException(file+": not an image ImageIO can read");
+        int nx = sim.NX, ny = sim.NY;
+        long[] m = new long[(nx*ny+63)/64];
+        for(int j=1;j<=ny;j++)
+            for(int i=1;i<=nx;i++){
+                int rgb = img.getRGB((int)((i-0.5)*img.getWidth()/nx),(int)((j-0.5)*img.getHeight()/ny));
+                int lum = (299*((rgb >> 16) & 0xff) + 587*((rgb >> 8) & 0xff) + 114*(rgb & 0xff))/1000;
+                if((rgb >>> 24) >= 128 && lum < 128){
+                    int bit = (i-1) + nx*(j-1);
+                    m[bit >>> 6] |= 1L << bit;
+                }
+            }
+        return new Obstacles(sim,m);
+    }
+}
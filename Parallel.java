@@ -0,0 +1,83 @@
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+
+// Row-band parallel loops on a fork-join pool shared by all kernels.
+public final class Parallel {
+    interface RowBody { void rows(int j0,int j1); }   // rows [j0, j1)
+    interface RowSum { double rows(int j0,int j1); }
+    interface RowMax { float rows(int j0,int j1); }
+
+    static ForkJoinPool pool = ForkJoinPool.commonPool();
+    static int grain = 32;                           // rows per task
+
+    private Parallel(){}
+
+    // threads <= 0 keeps the common pool (sized to the machine); grain <= 0 keeps the current grain
+    static void configure(int threads,int rows){
+        if(threads > 0 && threads != pool.getParallelism()){
+            if(pool != ForkJoinPool.commonPool()) pool.shutdown();
+            pool = new ForkJoinPool(threads);
+        }
+        if(rows > 0) grain = rows;
+    }
+
+    static void forRows(int j0,int j1,RowBody body){
+        if(j1-j0 <= grain || pool.getParallelism() < 2){ body.rows(j0,j1); return; }
+        pool.invoke(new Band(j0,j1,body));
+    }
+
+    // forRows, adding up what each band returns
+    static double sumRows(int j0,int j1,RowSum body){
+        if(j1-j0 <= grain || pool.getParallelism() < 2) return body.rows(j0,j1);
+        return pool.invoke(new SumBand(j0,j1,body));
+    }
+
+    // forRows, keeping the largest value a band returns
+    static float maxRows(int j0,int j1,RowMax body){
+        if(j1-j0 <= grain || pool.getParallelism() < 2) return body.rows(j0,j1);
+        return pool.invoke(new MaxBand(j0,j1,body));
+    }
+
+    private static final class Band extends RecursiveAction {
+        final int j0, j1;
+        final RowBody body;
+        Band(int j0,int j1,RowBody body){ this.j0=j0; this.j1=j1; this.body=body; }
+
+        @Override protected void compute(){
+            if(j1-j0 <= grain){ body.rows(j0,j1); return; }
+            int mid = (j0+j1)>>>1;
+            invokeAll(new Band(j0,mid,body), new Band(mid,j1,body));
+        }
+    }
+
+    private static final class SumBand extends RecursiveTask<Double> {
+        final int j0, j1;
+        final RowSum body;
+        SumBand(int j0,int j1,RowSum body){ this.j0=j0; this.j1=j1; this.body=body; }
+
+        @Override protected Double compute(){
+            if(j1-j0 <= grain) return body.rows(j0,j1);
+            int mid = (j0+j1)>>>1;
+            SumBand lo = new SumBand(j0,mid,body);
+            lo.fork();
+            double hi = new SumBand(mid,j1,body).compute();
+            return lo.join() + hi;
+        }
+    }
+
+    private static final class MaxBand extends RecursiveTask<Float> {
+        final int j0, j1;
+        final RowMax body;
+        MaxBand(int j0,int j1,RowMax body){ this.j0=j0; this.j1=j1; this.body=body; }
+
+        @Override protected Float compute(){
+            if(j1-j0 <= grain) return body.rows(j0,j1);
+            int mid = (j0+j1)>>>1;
+            MaxBand lo = new MaxBand(j0,mid,body);
+            lo.fork();
+            float hi = new MaxBand(mid,j1,body).compute();
+            return Math.max(lo.join(),hi);
+        }
+    }
+}
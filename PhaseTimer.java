@@ -0,0 +1,40 @@
+import java.util.Arrays;
+
+// Durations of one phase: a running count and total, plus a ring of the last WINDOW samples that
+// the percentiles are taken from. The solver thread records, JMX threads read; both lock, which
+// costs far less than any phase takes.
+public class PhaseTimer implements PhaseTimerMBean {
+    static final int WINDOW = 1024;
+
+    final String name;
+    private final long[] ring = new long[WINDOW];
+    private long count, total, last;
+
+    PhaseTimer(String name){ this.name = name; }
+
+    synchronized void record(long nanos){
+        ring[(int)(count%WINDOW)] = nanos;
+        count++; total += nanos; last = nanos;
+    }
+
+    private synchronized long[] window(){
+        return Arrays.copyOf(ring,(int)Math.min(count,WINDOW));
+    }
+
+    // q-quantile of the window in microseconds, 0 before the first sample
+    private double quantile(double q){
+        long[] w = window();
+        if(w.length == 0) return 0;
+        Arrays.sort(w);
+        return w[(int)Math.min(w.length-1,Math.floor(q*w.length))]/1e3;
+    }
+
+    @Override public synchronized long getCount(){ return count; }
+    @Override public synchronized double getLastMicros(){ return last/1e3; }
+    @Override public synchronized double getMeanMicros(){ return count > 0 ? total/1e3/count : 0; }
+    @Override public double getP50Micros(){ return quantile(0.5); }
+    @Override public double getP90Micros(){ return quantile(0.9); }
+    @Override public double getP99Micros(){ return quantile(0.99); }
+    @Override public double getMaxMicros(){ return quantile(1); }
+    @Override public synchronized double getTotalSeconds(){ return total/1e9; }
+}
@@ -0,0 +1,12 @@
+// What one phase's timer publishes over JMX; times are in microseconds, percentiles over the
+// last PhaseTimer.WINDOW samples.
+public interface PhaseTimerMBean {
+    long getCount();
+    double getLastMicros();
+    double getMeanMicros();
+    double getP50Micros();
+    double getP90Micros();
+    double getP99Micros();
+    double getMaxMicros();
+    double getTotalSeconds();
+}
@@ -0,0 +1,85 @@
+// Red-black ordered Gauss-Seidel. Cells of one colour only depend on the other colour,
+// so each half-sweep is split into row bands and run on the shared fork-join pool.
+// With a tolerance each band also sums its squared residuals (c times the update). Colours
+// follow the global row (FluidEngine.row0), so slabs of a distributed run sweep as one grid does.
+public class RedBlackSolver implements LinearSolver {
+    @Override
+    public int solve(FluidEngine sim,int b,float[] x,float[] x0,float a,float c,int maxIter,float tol){
+        int NX = sim.NX, NY = sim.NY;
+        float invC = 1f/c;
+        boolean track = tol > 0;
+        double limit = track ? tol*MultigridSolver.norm(x0,NX,NY) : -1;
+        int red = sim.row0 & 1, black = red ^ 1;
+        for(int k=0;k<maxIter;k++){
+            double rr = Parallel.sumRows(1,NY+1,(j0,j1) -> sweep(sim,x,x0,a,invC,red,j0,j1,track))
+                      + Parallel.sumRows(1,NY+1,(j0,j1) -> sweep(sim,x,x0,a,invC,black,j0,j1,track));
+            sim.setBnd(b,x);
+            if(Math.sqrt(rr) <= limit) return k+1;
+        }
+        return maxIter;
+    }
+
+    // both colours of each band relax every field, row by row, before the next colour
+    @Override
+    public int solve(FluidEngine sim,int[] b,float[][] x,float[][] x0,float a,float c,int maxIter,float tol){
+        int NX = sim.NX, NY = sim.NY;
+        float invC = 1f/c;
+        boolean track = tol > 0;
+        double limit = track ? tol*MultigridSolver.norm(x0,NX,NY) : -1;
+        int red = sim.row0 & 1, black = red ^ 1;
+        for(int k=0;k<maxIter;k++){
+            double rr = Parallel.sumRows(1,NY+1,(j0,j1) -> sweep(sim,x,x0,a,invC,red,j0,j1,track))
+                      + Parallel.sumRows(1,NY+1,(j0,j1) -> sweep(sim,x,x0,a,invC,black,j0,j1,track));
+            sim.setBnd(b,x);
+            if(Math.sqrt(rr) <= limit) return k+1;
+        }
+        return maxIter;
+    }
+
+    static void sweep(float[] x,float[] x0,float a,float invC,int nx,int colour,int j0,int j1){
+        sweep(x,x0,a,invC,nx,colour,j0,j1,false);
+    }
+
+    // relaxes the cells with (i+j)%2 == colour in rows [j0,j1) of a grid nx cells wide; returns
+    // the squared residual of those cells when track is set
+    static double sweep(float[] x,float[] x0,float a,float invC,int nx,int colour,int j0,int j1,boolean track){
+        double rr = 0;
+        for(int j=j0;j<j1;j++) rr += sweepRow(x,x0,a,invC,nx,colour,j,1,nx+1,track);
+        return rr;
+    }
+
+    // the same over the engine's active cells only
+    static double sweep(FluidEngine sim,float[] x,float[] x0,float a,float invC,int colour,int j0,int j1,boolean track){
+        double rr = 0;
+        for(int j=j0;j<j1;j++){
+            int[] r = sim.runs(j);
+            for(int k=0;k<r.length;k+=2) rr += sweepRow(x,x0,a,invC,sim.NX,colour,j,r[k],r[k+1],track);
+        }
+        return rr;
+    }
+
+    // the same for several fields, each row of every field before the next row
+    static double sweep(FluidEngine sim,float[][] x,float[][] x0,float a,float invC,int colour,int j0,int j1,boolean track){
+        double rr = 0;
+        for(int j=j0;j<j1;j++){
+            int[] r = sim.runs(j);
+            for(int k=0;k<r.length;k+=2)
+                for(int f=0;f<x.length;f++) rr += sweepRow(x[f],x0[f],a,invC,sim.NX,colour,j,r[k],r[k+1],track);
+        }
+        return rr;
+    }
+
+    // sweep for the cells [i0, i1) of row j
+    static double sweepRow(float[] x,float[] x0,float a,float invC,int nx,int colour,int j,int i0,int i1,boolean track){
+        int w = nx+2, row = j*w;
+        float c = 1f/invC;
+        double rr = 0;
+        for(int i=i0+((i0+j+colour)&1);i<i1;i+=2){
+            int id = row+i;
+            float v = (x0[id] + a*(x[id-1] + x[id+1] + x[id-w] + x[id+w]))*invC;
+            if(track){ float d = c*(v-x[id]); rr += d*d; }
+            x[id] = v;
+        }
+        return rr;
+    }
+}
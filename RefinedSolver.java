@@ -0,0 +1,153 @@
+import java.util.Arrays;
+
+// Iterative refinement around another solver: the residual x0 - A x is summed in double, the inner
+// (float) solver solves A e = r for a correction, and x += e, until the double residual, relative
+// to the right-hand side, drops below tol or stops improving, or after maxRefinements corrections.
+// Those outer limits are the refinement's own; the maxIter and tol a solve is given (the engine's
+// --max-iter and --tol) bound each inner solve, so the inner solver only has to reduce each
+// residual by its own tolerance.
+//
+// Mixed precision (solve) refines the caller's float x, so float round-off in the inner solver no
+// longer caps the accuracy of x, but float x itself is the floor. Double precision (project) keeps
+// the divergence and the pressure in double, refines those, and subtracts the pressure gradient in
+// double; only the updated velocities are rounded to float.
+public class RefinedSolver implements LinearSolver {
+    final LinearSolver inner;
+    final boolean inDouble;         // FluidEngine.project hands the whole projection to project()
+    int maxRefinements = 10;
+    double tol;
+
+    int refinements;        // outer corrections in the last solve
+    int innerIterations;    // inner solver iterations summed over them
+    double residual;        // relative residual (in double) of the returned x
+
+    private float[] r, e;
+    private double[] p, div;
+
+    public RefinedSolver(LinearSolver inner){ this(inner,false); }
+
+    public RefinedSolver(LinearSolver inner,boolean inDouble){
+        this.inner = inner;
+        this.inDouble = inDouble;
+        tol = inDouble ? 1e-10 : 1e-6;
+    }
+
+    @Override
+    public int solve(FluidEngine sim,int b,float[] x,float[] x0,float a,float c,int maxIter,float tol){
+        int NX = sim.NX, NY = sim.NY, w = NX+2;
+        scratch(sim.size,false);
+        boolean singular = b == 0 && c == 4*a;
+        refinements = 0; innerIterations = 0; residual = 0;
+        double rhsNorm = MultigridSolver.norm(x0,NX,NY);
+        if(rhsNorm == 0){ Arrays.fill(x,0f); return 0; }
+
+        double prev = Double.MAX_VALUE;
+        while(true){
+            sim.setBnd(b,x);
+            double rr = 0;
+            for(int j=1;j<=NY;j++)
+                for(int i=1,id=j*w+1;i<=NX;i++,id++){
+                    double d = x0[id] - ((double)c*x[id] - (double)a*((double)x[id-1] + x[id+1] + x[id-w] + x[id+w]));
+                    r[id] = (float)d;
+                    rr += d*d;
+                }
+            residual = norm(rr,singular,NX,NY)/rhsNorm;
+            if(residual < this.tol || residual > 0.9*prev || refinements >= maxRefinements) break;
+            prev = residual;
+
+            correct(sim,b,a,c,maxIter,tol);
+            for(int j=1;j<=NY;j++)
+                for(int i=1,id=j*w+1;i<=NX;i++,id++) x[id] += e[id];
+        }
+        sim.setBnd(b,x);
+        return refinements;
+    }
+
+    // project() in double: the divergence of the float velocities, the pressure refined from the
+    // float guess in p, and the gradient subtracted from the velocities, all in double. p and div
+    // get float copies for whoever reads them afterwards (warm start, SolverBench's residual). Sets
+    // sim.maxSpeed as the float projection does; returns the refinements.
+    int project(FluidEngine sim,float[] velocX,float[] velocY,float[] pf,float[] divf,int maxIter,float tol){
+        int NX = sim.NX, NY = sim.NY, N = sim.N, w = NX+2;
+        scratch(sim.size,true);
+        refinements = 0; innerIterations = 0; residual = 0;
+        double bb = 0;
+        for(int j=1;j<=NY;j++)
+            for(int i=1,id=j*w+1;i<=NX;i++,id++){
+                double d = -0.5*((double)velocX[id+1] - velocX[id-1] + (double)velocY[id+w] - velocY[id-w])/N;
+                div[id] = d;
+                divf[id] = (float)d;
+                bb += d*d;
+            }
+        sim.setBnd(0,divf);
+        for(int id=0;id<p.length;id++) p[id] = pf[id];
+
+        double rhsNorm = Math.sqrt(bb), prev = Double.MAX_VALUE;
+        if(rhsNorm == 0) Arrays.fill(p,0.0);
+        else while(true){
+            setBnd(sim,p);
+            double rr = 0;
+            for(int j=1;j<=NY;j++)
+                for(int i=1,id=j*w+1;i<=NX;i++,id++){
+                    double d = div[id] - (4*p[id] - (p[id-1] + p[id+1] + p[id-w] + p[id+w]));
+                    r[id] = (float)d;
+                    rr += d*d;
+                }
+            residual = norm(rr,true,NX,NY)/rhsNorm;
+            if(residual < this.tol || residual > 0.9*prev || refinements >= maxRefinements) break;
+            prev = residual;
+
+            correct(sim,0,1,4,maxIter,tol);
+            for(int j=1;j<=NY;j++)
+                for(int i=1,id=j*w+1;i<=NX;i++,id++) p[id] += e[id];
+        }
+        setBnd(sim,p);
+
+        float max = 0;
+        for(int j=1;j<=NY;j++)
+            for(int i=1,id=j*w+1;i<=NX;i++,id++){
+                float vx = velocX[id] = (float)(velocX[id] - 0.5*(p[id+1] - p[id-1])*N);
+                float vy = velocY[id] = (float)(velocY[id] - 0.5*(p[id+w] - p[id-w])*N);
+                max = Math.max(max,Math.max(Math.abs(vx),Math.abs(vy)));
+            }
+        for(int id=0;id<p.length;id++) pf[id] = (float)p[id];
+        sim.maxSpeed = max;
+        return refinements;
+    }
+
+    // The inner solve shares the outer limits' defaults with the solver it wraps; the engine passes
+    // these when --max-iter / --tol are not given.
+    @Override public int defaultMaxIter(){ return inner.defaultMaxIter(); }
+    @Override public float defaultTol(){ return inner.defaultTol(); }
+
+    // e = A^-1 r by the inner solver, from zero
+    private void correct(FluidEngine sim,int b,float a,float c,int maxIter,float tol){
+        Arrays.fill(e,0f);
+        innerIterations += inner.solve(sim,b,e,r,a,c,maxIter,tol);
+        refinements++;
+    }
+
+    // |r| from its sum of squares, without r's mean when the constant mode is unreachable: that
+    // part of the residual is not an error in x. Leaves r itself mean-free for the inner solve.
+    private double norm(double rr,boolean singular,int NX,int NY){
+        if(!singular) return Math.sqrt(rr);
+        ConjugateGradientSolver.removeMean(r,NX,NY);
+        return MultigridSolver.norm(r,NX,NY);
+    }
+
+    private void scratch(int size,boolean doubles){
+        if(r == null || r.length != size){ r = new float[size]; e = new float[size]; p = null; div = null; }
+        if(doubles && p == null){ p = new double[size]; div = new double[size]; }
+    }
+
+    // FluidEngine.setBnd(0, x) in double: ghosts copy their neighbour, corners average two ghosts
+    private static void setBnd(FluidEngine sim,double[] x){
+        int NX = sim.NX, NY = sim.NY, w = NX+2;
+        for(int j=1;j<=NY;j++){ x[j*w] = x[j*w+1]; x[j*w+NX+1] = x[j*w+NX]; }
+        for(int i=1;i<=NX;i++){ x[i] = x[w+i]; x[(NY+1)*w+i] = x[NY*w+i]; }
+        x[0] = 0.5*(x[1] + x[w]);
+        x[(NY+1)*w] = 0.5*(x[(NY+1)*w+1] + x[NY*w]);
+        x[NX+1] = 0.5*(x[NX] + x[w+NX+1]);
+        x[(NY+1)*w+NX+1] = 0.5*(x[(NY+1)*w+NX] + x[NY*w+NX+1]);
+    }
+}
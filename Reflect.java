@@ -0,0 +1,14 @@
+// Loads optional implementations that are compiled separately (see vector/ in the README).
+final class Reflect {
+    private Reflect(){}
+
+    static Object instantiate(String className){
+        try {
+            return Class.forName(className).getDeclaredConstructor().newInstance();
+        } catch(ClassNotFoundException | NoClassDefFoundError e){
+            throw new IllegalStateException(className+" is not available: compile vector/*.java and run with --add-modules jdk.incubator.vector", e);
+        } catch(ReflectiveOperationException e){
+            throw new IllegalStateException("cannot create "+className, e);
+        }
+    }
+}
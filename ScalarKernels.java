@@ -0,0 +1,43 @@
+// Plain scalar loops, the original kernels.
+public class ScalarKernels implements StencilKernels {
+    @Override
+    public void divergence(FluidEngine sim,float[] velocX,float[] velocY,float[] div,int i0,int i1,int j0,int j1){
+        int N = sim.N;
+        for(int j=j0;j<j1;j++)
+            for(int i=i0;i<i1;i++)
+                div[sim.IX(i,j)] = -0.5f*(velocX[sim.IX(i+1,j)]-velocX[sim.IX(i-1,j)] + velocY[sim.IX(i,j+1)]-velocY[sim.IX(i,j-1)])/N;
+    }
+
+    @Override
+    public float subtractGradient(FluidEngine sim,float[] velocX,float[] velocY,float[] p,int i0,int i1,int j0,int j1){
+        int N = sim.N;
+        float max = 0;
+        for(int j=j0;j<j1;j++)
+            for(int i=i0;i<i1;i++){
+                float vx = velocX[sim.IX(i,j)] -= 0.5f*(p[sim.IX(i+1,j)]-p[sim.IX(i-1,j)])*N;
+                float vy = velocY[sim.IX(i,j)] -= 0.5f*(p[sim.IX(i,j+1)]-p[sim.IX(i,j-1)])*N;
+                max = Math.max(max,Math.max(Math.abs(vx),Math.abs(vy)));
+            }
+        return max;
+    }
+
+    @Override
+    public void advect(FluidEngine sim,float[] d,float[] d0,float[] velocX,float[] velocY,float dt0,int i0,int i1,int j0,int j1){
+        for(int j=j0;j<j1;j++) advectRow(sim,d,d0,velocX,velocY,dt0,j,i0,i1);
+    }
+
+    // advects cells [i0, i1) of row j
+    void advectRow(FluidEngine sim,float[] d,float[] d0,float[] velocX,float[] velocY,float dt0,int j,int i0,int i1){
+        int NX = sim.NX, NY = sim.NY;
+        for(int i=i0;i<i1;i++){
+            float x=i - dt0*velocX[sim.IX(i,j)];
+            float y=j - dt0*velocY[sim.IX(i,j)];
+            x=Math.max(0.5f,Math.min(NX+0.5f,x));
+            y=Math.max(0.5f,Math.min(NY+0.5f,y));
+            int ia=(int)Math.floor(x), ib=ia+1;
+            int ja=(int)Math.floor(y), jb=ja+1;
+            float s1=x-ia,s0=1-s1,t1=y-ja,t0=1-t1;
+            d[sim.IX(i,j)] = s0*(t0*d0[sim.IX(ia,ja)] + t1*d0[sim.IX(ia,jb)]) + s1*(t0*d0[sim.IX(ib,ja)] + t1*d0[sim.IX(ib,jb)]);
+        }
+    }
+}
@@ -0,0 +1,174 @@
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.file.Path;
+import java.util.Properties;
+
+// Startup options shared by the viewer and Headless, given as --key=value arguments. --config=file
+// loads a properties file with the same keys first; arguments on the command line override it.
+public class SimConfig {
+    int nx = 256, ny = 256;         // interior grid cells
+    int scale = 3;                  // screen pixels per cell in the viewer
+    int steps = 500;                // Headless only
+    String solver = "gs";
+    String pressure;                // null: same as solver
+    String precision = "float";     // pressure solve: float | mixed | double (see RefinedSolver)
+    String stencil = "scalar";      // divergence/gradient/advection kernels: scalar | vector
+    String layout = "rowmajor";     // field storage: rowmajor | tiled | tiled-<B>
+    int maxIter;
+    float tol;
+    int threads;                    // fork-join pool size; 0 = the common pool
+    int grain;                      // rows per parallel task; 0 = Parallel's default
+    float cfl;                      // adaptive substepping to this CFL number; 0 = fixed dt
+    int maxSubsteps = 16;
+    boolean warmStart = true;       // seed pressure solves with the previous step's pressure
+    boolean halfScalars;            // store density in fp16
+    String obstacles;               // "cylinder" or an image whose dark pixels are solid; null = empty box
+    float activeThreshold;          // skip tiles whose fields stay below this; 0 = process every cell
+    boolean verify;                 // Headless only: compare against a run without skipping or fp16
+    String record;                  // FrameRecorder output file; null records nothing
+    int recordEvery = 1;            // steps between recorded frames
+    int recordBuffers = 8;          // frames in flight before the recorder starts dropping
+    String replay;                  // viewer only: play this recording instead of simulating
+    String restore;                 // start from this checkpoint; its grid size overrides nx / ny
+    String checkpoint;              // Headless only: save the state here at the end of the run
+    int checkpointEvery;            // Headless only: also save every this many steps; 0 = only at the end
+    boolean compress;               // deflate checkpoints
+    String jmx;                     // publish phase timings as MBeans under this domain; null = off
+    String export;                  // Headless only: directory for rendered PNG frames
+    int exportWidth, exportHeight;  // 0: scale pixels per cell, as in the viewer
+    boolean exportArrows;           // draw velocity arrows into exported frames
+    int exportEvery = 1;            // steps between exported frames
+    int exportThreads;              // encoder threads; 0 = one per core
+    int workers = 2;                // Distributed only: slab processes
+    int halo = 16;                  // Distributed only: rows each slab copies from each neighbour
+    int jobs;                       // Ensemble only: concurrent runs; 0 = as many as cores and memory allow
+    String csv = "ensemble.csv";    // Ensemble only: one summary line per run
+
+    static SimConfig parse(String[] args) throws IOException {
+        Properties p = new Properties();
+        for(String a : args)
+            if(a.startsWith("--config="))
+                try(Reader r = new FileReader(a.substring("--config=".length()))){ p.load(r); }
+        for(String a : args){
+            String[] kv = a.replaceFirst("^--","").split("=",2);
+            if(!kv[0].equals("config")) p.setProperty(kv[0], kv.length > 1 ? kv[1] : "");
+        }
+        SimConfig c = new SimConfig();
+        // n sets both sides, so apply it before any nx / ny
+        if(p.containsKey("n")) c.set("n",p.getProperty("n").trim());
+        for(String key : p.stringPropertyNames())
+            if(!key.equals("n")) c.set(key,p.getProperty(key).trim());
+        return c;
+    }
+
+    void set(String key,String v){
+        switch(key){
+            case "n": nx = ny = Integer.parseInt(v); break;
+            case "nx": nx = Integer.parseInt(v); break;
+            case "ny": ny = Integer.parseInt(v); break;
+            case "scale": scale = Integer.parseInt(v); break;
+            case "steps": steps = Integer.parseInt(v); break;
+            case "solver": solver = v; break;
+            case "pressure": pressure = v; break;
+            case "stencil": stencil = v; break;
+            case "precision": precision = v; break;
+            case "layout": layout = v; break;
+            case "max-iter": maxIter = Integer.parseInt(v); break;
+            case "tol": tol = Float.parseFloat(v); break;
+            case "threads": threads = Integer.parseInt(v); break;
+            case "grain": grain = Integer.parseInt(v); break;
+            case "cfl": cfl = Float.parseFloat(v); break;
+            case "max-substeps":
+                maxSubsteps = Integer.parseInt(v);
+                if(maxSubsteps < 1) throw new IllegalArgumentException("--max-substeps must be at least 1");
+                break;
+            case "warm-start": warmStart = v.isEmpty() || Boolean.parseBoolean(v); break;
+            case "obstacles": obstacles = v; break;
+            case "half-scalars": halfScalars = v.isEmpty() || Boolean.parseBoolean(v); break;
+            case "active-threshold": activeThreshold = v.isEmpty() ? ActiveTiles.DEFAULT_THRESHOLD : Float.parseFloat(v); break;
+            case "verify": verify = v.isEmpty() || Boolean.parseBoolean(v); break;
+            case "record": record = v; break;
+            case "record-every": recordEvery = Integer.parseInt(v); break;
+            case "record-buffers": recordBuffers = Integer.parseInt(v); break;
+            case "replay": replay = v; break;
+            case "restore": restore = v; break;
+            case "checkpoint": checkpoint = v; break;
+            case "checkpoint-every": checkpointEvery = Integer.parseInt(v); break;
+            case "compress": compress = v.isEmpty() || Boolean.parseBoolean(v); break;
+            case "jmx": jmx = v.isEmpty() ? "navierstokes" : v; break;
+            case "export": export = v; break;
+            case "export-size": {
+                String[] wh = v.split("x");
+                exportWidth = Integer.parseInt(wh[0]); exportHeight = Integer.parseInt(wh[1]);
+                break;
+            }
+            case "export-arrows": exportArrows = v.isEmpty() || Boolean.parseBoolean(v); break;
+            case "export-every": exportEvery = Integer.parseInt(v); break;
+            case "export-threads": exportThreads = Integer.parseInt(v); break;
+            case "workers": workers = Integer.parseInt(v); break;
+            case "halo": halo = Integer.parseInt(v); break;
+            case "jobs": jobs = Integer.parseInt(v); break;
+            case "csv": csv = v; break;
+            default: throw new IllegalArgumentException("unknown option: "+key);
+        }
+    }
+
+    FluidEngine newEngine() throws IOException {
+        Parallel.configure(threads,grain);
+        if(restore != null){
+            int[] n = Checkpoint.gridSize(Path.of(restore));
+            nx = n[0]; ny = n[1];
+        }
+        return configure(new FluidEngine(nx,ny,Math.min(nx,ny),FieldLayout.named(layout,nx,ny),halfScalars));
+    }
+
+    // applies the solver and step options to an engine built elsewhere, e.g. a Distributed slab;
+    // --half-scalars is the constructor's to apply
+    FluidEngine configure(FluidEngine sim) throws IOException {
+        sim.solver = LinearSolver.named(solver);
+        // project() gets its own instance even of the same solver, so cached operators (IC pivots,
+        // multigrid levels) and last-solve statistics belong to the pressure solve alone
+        sim.pressureSolver = withPrecision(LinearSolver.named(pressure != null ? pressure : solver),precision);
+        sim.kernels = StencilKernels.named(stencil);
+        sim.maxIter = maxIter;
+        sim.tol = tol;
+        sim.warmStart = warmStart;
+        sim.cfl = cfl;
+        sim.maxSubsteps = maxSubsteps;
+        if(activeThreshold > 0) sim.active = new ActiveTiles(sim.NX,sim.NY,activeThreshold);
+        if(obstacles != null){
+            if(!sim.obstaclesSupported())
+                throw new IllegalArgumentException("--obstacles needs --solver and --pressure gs or rb, float precision and no --half-scalars");
+            sim.obstacles = Obstacles.named(sim,obstacles);
+        }
+        if(!sim.layoutSupported())
+            throw new IllegalArgumentException("layout "+layout+" needs --solver=gs, --stencil=scalar and no --active-threshold");
+        if(restore != null) Checkpoint.restore(sim,Path.of(restore));
+        if(jmx != null){
+            sim.metrics = new StepMetrics();
+            sim.metrics.register(jmx);
+        }
+        return sim;
+    }
+
+    // wraps the pressure solver for mixed or double precision; float leaves it as it is
+    static LinearSolver withPrecision(LinearSolver ls,String precision){
+        switch(precision){
+            case "float": return ls;
+            case "mixed": return new RefinedSolver(ls);
+            case "double": return new RefinedSolver(ls,true);
+            default: throw new IllegalArgumentException("unknown precision: "+precision);
+        }
+    }
+
+    FrameRecorder newRecorder(FluidEngine sim) throws IOException {
+        return record != null ? new FrameRecorder(sim,Path.of(record),recordBuffers) : null;
+    }
+
+    FrameExporter newExporter(FluidEngine sim) throws IOException {
+        if(export == null) return null;
+        int w = exportWidth > 0 ? exportWidth : (sim.NX+2)*scale, h = exportHeight > 0 ? exportHeight : (sim.NY+2)*scale;
+        return new FrameExporter(sim,Path.of(export),w,h,exportArrows,exportThreads);
+    }
+}
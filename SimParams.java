@@ -0,0 +1,11 @@
+// One consistent set of physical and forcing parameters. Immutable: writers such as the UI
+// sliders publish a new set through FluidEngine.params, and each step reads it exactly once.
+public record SimParams(float diff,float visc,float dt,float densityAmount,float velocityAmount) {
+    static final SimParams DEFAULT = new SimParams(0.000005f,0.0001f,0.5f,500f,50f);
+
+    SimParams withDiff(float v){ return new SimParams(v,visc,dt,densityAmount,velocityAmount); }
+    SimParams withVisc(float v){ return new SimParams(diff,v,dt,densityAmount,velocityAmount); }
+    SimParams withDt(float v){ return new SimParams(diff,visc,v,densityAmount,velocityAmount); }
+    SimParams withDensityAmount(float v){ return new SimParams(diff,visc,dt,v,velocityAmount); }
+    SimParams withVelocityAmount(float v){ return new SimParams(diff,visc,dt,densityAmount,v); }
+}
@@ -0,0 +1,225 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// Repeatable micro-benchmarks for the solver kernels and the full step.
+//   java -cp out SolverBench [--sizes=64,256,1024,4096] [--kernels=linearSolve,linearSolve2,advect,project,setBnd,step]
+//                            [--solver=gs,rb] [--pressure=mg-v,mg-f] [--stencil=scalar,vector] [--iter=0] [--tol=0] [--dt=0.5] [--warmup=3] [--measure=5] [--minms=200]
+//                            [--threads=0] [--grain=32] [--layout=rowmajor,tiled] [--precision=float,mixed,double]
+// --iter caps the iterations of each linear solve (FluidEngine.maxIter), --tol sets FluidEngine.tol.
+// Each measurement iteration repeats the kernel until at least minms has been spent in it. The solves
+// and project are restored to the seeded inputs before every call, outside the timed region, so each
+// timed call does the work of a fresh solve rather than polishing the previous call's answer. ns/cell
+// is per touched cell and GB/s is the effective bandwidth under the per-cell traffic model listed in
+// bytesPerCell(); iters is the mean solver iterations of the measured calls. project also reports the
+// relative residual its last measured call left, summed in double, so the precision modes can be
+// compared on accuracy as well as time; for --precision=double that is the residual of the double
+// pressure, which the float copy left in p would round away.
+// Layouts other than rowmajor only run the variants FluidEngine.layoutSupported() allows. For cache
+// miss rates run one layout at a time under perf stat -e L1-dcache-load-misses,LLC-load-misses.
+public class SolverBench {
+
+    interface Op { void run(); }
+
+    static int warmup = 3, measure = 5;
+    static int sweeps;                       // solver iterations done by the last call of the kernel
+    static long calls, totalSweeps;          // over the measured calls
+    static long minNanos = 200_000_000L;
+
+    public static void main(String[] args){
+        int[] sizes = {64,256,1024,4096};
+        int[] iters = {0};                      // 0 = the solver's default cap
+        float[] dts = {0.5f};
+        float tol = 0;
+        int threads = 0, grain = 0;
+        List<String> kernels = List.of("linearSolve","linearSolve2","advect","project","setBnd","step");
+        List<String> solvers = List.of("gs");
+        List<String> pressures = null;          // project/step pressure solvers; null uses solver
+        List<String> stencils = List.of("scalar");
+        List<String> layouts = List.of("rowmajor");
+        List<String> precisions = List.of("float");
+        for(String a : args){
+            String[] kv = a.replaceFirst("^--","").split("=",2);
+            String v = kv.length > 1 ? kv[1] : "";
+            switch(kv[0]){
+                case "sizes": sizes = Arrays.stream(v.split(",")).mapToInt(Integer::parseInt).toArray(); break;
+                case "kernels": kernels = List.of(v.split(",")); break;
+                case "solver": solvers = List.of(v.split(",")); break;
+                case "pressure": pressures = List.of(v.split(",")); break;
+                case "stencil": stencils = List.of(v.split(",")); break;
+                case "layout": layouts = List.of(v.split(",")); break;
+                case "precision": precisions = List.of(v.split(",")); break;
+                case "iter": iters = Arrays.stream(v.split(",")).mapToInt(Integer::parseInt).toArray(); break;
+                case "tol": tol = Float.parseFloat(v); break;
+                case "dt": { String[] p = v.split(","); dts = new float[p.length]; for(int k=0;k<p.length;k++) dts[k]=Float.parseFloat(p[k]); break; }
+                case "warmup": warmup = Integer.parseInt(v); break;
+                case "measure": measure = Integer.parseInt(v); break;
+                case "threads": threads = Integer.parseInt(v); break;
+                case "grain": grain = Integer.parseInt(v); break;
+                case "minms": minNanos = Long.parseLong(v)*1_000_000L; break;
+                default: throw new IllegalArgumentException("unknown option: "+a);
+            }
+        }
+
+        Parallel.configure(threads,grain);
+        System.out.printf("threads=%d grain=%d%n",Parallel.pool.getParallelism(),Parallel.grain);
+        System.out.printf("%-12s %6s %-28s %12s %10s %10s %8s %8s%n","kernel","N","params","ms/op","+-","ns/cell","GB/s","iters");
+        for(int n : sizes)
+            for(String layout : layouts){
+                FluidEngine sim = new FluidEngine(n,n,FieldLayout.named(layout,n,n));
+                for(String k : kernels){
+                    // only sweep the parameters a kernel actually consumes
+                    int[] ki = k.equals("advect") || k.equals("setBnd") ? new int[]{0} : iters;
+                    float[] kd = k.startsWith("linearSolve") || k.equals("advect") || k.equals("step") ? dts : new float[]{sim.params.get().dt()};
+                    List<String> ks = k.equals("advect") || k.equals("setBnd") ? List.of(solvers.get(0)) : solvers;
+                    List<String> kp = pressures != null && (k.equals("project") || k.equals("step")) ? pressures : Arrays.asList((String)null);
+                    List<String> kk = k.startsWith("linearSolve") || k.equals("setBnd") ? List.of(stencils.get(0)) : stencils;
+                    List<String> kq = k.equals("project") || k.equals("step") ? precisions : List.of("float");
+                    List<String[]> variants = new ArrayList<>();        // {solver, pressure, stencil, precision}
+                    for(String solver : ks)
+                        for(String pressure : kp)
+                            for(String stencil : kk)
+                                for(String precision : kq) variants.add(new String[]{solver,pressure,stencil,precision});
+                    for(String[] var : variants)
+                        for(int iter : ki)
+                            for(float dt : kd){
+                                seed(sim);
+                                sim.params.set(SimParams.DEFAULT.withDt(dt));
+                                sim.maxIter = iter;
+                                sim.tol = tol;
+                                sim.solver = LinearSolver.named(var[0]);
+                                sim.pressureSolver = var[1] != null ? LinearSolver.named(var[1]) : null;
+                                if(!var[3].equals("float"))
+                                    sim.pressureSolver = SimConfig.withPrecision(sim.pressureSolver != null ? sim.pressureSolver : sim.solver,var[3]);
+                                sim.kernels = StencilKernels.named(var[2]);
+                                if(!sim.layoutSupported()) continue;
+                                String label = var[0] + (var[1] != null ? "/"+var[1] : "") + (var[2].equals("scalar") ? "" : "+"+var[2])
+                                        + (var[3].equals("float") ? "" : "/"+var[3]) + (layout.equals("rowmajor") ? "" : "@"+layout);
+                                run(sim,k,label,iter,dt);
+                            }
+                }
+            }
+    }
+
+    // smooth vortex with a density blob, so kernels see realistic non-zero data
+    static void seed(FluidEngine sim){
+        for(int j=0;j<sim.NY+2;j++)
+            for(int i=0;i<sim.NX+2;i++){
+                double x = (i-0.5)/sim.NX, y = (j-0.5)/sim.NY;
+                double r2 = (x-0.5)*(x-0.5)+(y-0.5)*(y-0.5);
+                int id = sim.IX(i,j);
+                sim.Vx[id] = sim.Vx0[id] = (float)(0.01*Math.sin(Math.PI*x)*Math.cos(Math.PI*y));
+                sim.Vy[id] = sim.Vy0[id] = (float)(-0.01*Math.cos(Math.PI*x)*Math.sin(Math.PI*y));
+                sim.density[id] = sim.s[id] = (float)(200*Math.exp(-r2*40));
+            }
+    }
+
+    static void run(FluidEngine sim,String kernel,String solver,int iter,float dt){
+        int N = sim.N;
+        long cells = (long)N*N;
+        Op op;
+        // the seeded fields, put back before each call of a kernel whose result depends on its start
+        float[][] live = {sim.Vx,sim.Vy,sim.Vx0,sim.Vy0}, saved = new float[live.length][];
+        for(int f=0;f<live.length;f++) saved[f] = live[f].clone();
+        Op reset = () -> { for(int f=0;f<live.length;f++) System.arraycopy(saved[f],0,live[f],0,saved[f].length); };
+        switch(kernel){
+            case "linearSolve": {
+                float a = dt*sim.params.get().visc()*N*N;
+                op = () -> sweeps = sim.linearSolve(1,sim.Vx,sim.Vx0,a,1+4*a,sim.solver);
+                break;
+            }
+            case "linearSolve2": {
+                // both velocity components in one fused solve, as diffuse() does in step()
+                float a = dt*sim.params.get().visc()*N*N;
+                int[] b = {1,2};
+                float[][] x = {sim.Vx,sim.Vy}, x0 = {sim.Vx0,sim.Vy0};
+                op = () -> sweeps = sim.linearSolve(b,x,x0,a,1+4*a,sim.solver);
+                break;
+            }
+            case "advect": op = () -> sim.advect(0,sim.density,sim.s,sim.Vx,sim.Vy,dt); reset = null; break;
+            case "project": op = () -> sweeps = sim.project(sim.Vx,sim.Vy,sim.Vx0,sim.Vy0); break;
+            case "setBnd": op = () -> sim.setBnd(1,sim.Vx); cells = 4L*N+4; reset = null; break;
+            // successive steps of an evolving flow, as in a run
+            case "step": op = () -> { Headless.force(sim); sim.step(); sweeps = Arrays.stream(sim.solveIters).sum(); }; reset = null; break;
+            default: throw new IllegalArgumentException("unknown kernel: "+kernel);
+        }
+        double[] r = measure(op,reset);
+        double iters = calls > 0 ? totalSweeps/(double)calls : 0;
+        double nsPerCell = r[0]*1e6/cells;
+        double gbs = bytesPerCell(kernel,iters)/nsPerCell;
+        // p and div of the last measured projection, which started from the seeded field
+        String accuracy = "";
+        if(kernel.equals("project")){
+            LinearSolver ps = sim.pressureSolver != null ? sim.pressureSolver : sim.solver;
+            boolean inDouble = ps instanceof RefinedSolver && ((RefinedSolver)ps).inDouble;
+            accuracy = String.format("  res %.2e",inDouble ? ((RefinedSolver)ps).residual : pressureResidual(sim,sim.Vx0,sim.Vy0));
+        }
+        System.out.printf("%-12s %6d %-28s %12.3f %10.3f %10.3f %8.2f %8.1f%s%n",
+                kernel, N, solver+" iter="+(iter > 0 ? String.valueOf(iter) : "dflt")+" dt="+dt, r[0], r[1], nsPerCell, gbs, iters, accuracy);
+    }
+
+    // |div - A p| / |div| of the pressure system, in double and without the unreachable mean;
+    // indexed through sim.IX, so tiled layouts are measured on the right cells
+    static double pressureResidual(FluidEngine sim,float[] p,float[] div){
+        int NX = sim.NX, NY = sim.NY;
+        sim.setBnd(0,p);
+        double[] r = new double[sim.size];
+        double mean = 0;
+        for(int j=1;j<=NY;j++)
+            for(int i=1;i<=NX;i++){
+                int id = sim.IX(i,j);
+                r[id] = div[id] - (4.0*p[id] - ((double)p[sim.IX(i-1,j)] + p[sim.IX(i+1,j)] + p[sim.IX(i,j-1)] + p[sim.IX(i,j+1)]));
+                mean += r[id];
+            }
+        mean /= (double)NX*NY;
+        double rr = 0, bb = 0;
+        for(int j=1;j<=NY;j++)
+            for(int i=1;i<=NX;i++){
+                int id = sim.IX(i,j);
+                rr += (r[id]-mean)*(r[id]-mean);
+                bb += (double)div[id]*div[id];
+            }
+        return Math.sqrt(rr/bb);
+    }
+
+    // Effective traffic per cell per call, counting each float read or written once
+    // (stencil neighbours are assumed to hit cache). sweeps is the total solver iterations
+    // the call performed; other solvers than Gauss-Seidel do more traffic per iteration.
+    static double bytesPerCell(String kernel,double sweeps){
+        switch(kernel){
+            case "linearSolve": return 12.0*sweeps;                   // read x0, x; write x
+            case "linearSolve2": return 24.0*sweeps;                  // the same for two fields
+            case "advect": return 16.0;                               // read vx, vy, d0; write d
+            case "project": return 16.0 + 12.0*sweeps + 20.0;         // divergence, solve, gradient
+            case "setBnd": return 8.0;                                // read neighbour, write ghost
+            case "step": return 12.0*sweeps + 2*36.0 + 3*16.0 + 3*4.0;  // 5 solves, 2 projections, 3 advects, clearing the scratch
+            default: return 0;
+        }
+    }
+
+    // returns {mean ms/op, stddev ms/op} over the measurement iterations; reset, when given, runs
+    // untimed before every call
+    static double[] measure(Op op,Op reset){
+        for(int w=0;w<warmup;w++) timeIteration(op,reset);
+        calls = totalSweeps = 0;
+        List<Double> samples = new ArrayList<>();
+        for(int m=0;m<measure;m++) samples.add(timeIteration(op,reset));
+        double mean = samples.stream().mapToDouble(Double::doubleValue).average().orElse(0);
+        double var = samples.stream().mapToDouble(x -> (x-mean)*(x-mean)).sum()/Math.max(1,samples.size()-1);
+        return new double[]{mean, Math.sqrt(var)};
+    }
+
+    static double timeIteration(Op op,Op reset){
+        long ops = 0, spent = 0;
+        do {
+            if(reset != null) reset.run();
+            sweeps = 0;
+            long t0 = System.nanoTime();
+            op.run();
+            spent += System.nanoTime()-t0;
+            ops++;
+            calls++; totalSweeps += sweeps;
+        } while(spent < minNanos);
+        return spent/1e6/ops;
+    }
+}
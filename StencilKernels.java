@@ -0,0 +1,20 @@
+// The per-cell passes of project() and advect(), over columns [i0, i1) of rows [j0, j1), so that
+// alternative (e.g. vectorised) implementations can be swapped in at startup. FluidEngine calls
+// them on row bands from several threads at once, so implementations must not share scratch state.
+public interface StencilKernels {
+    // div = -0.5*(dVx/dx + dVy/dy)/N, central differences
+    void divergence(FluidEngine sim,float[] velocX,float[] velocY,float[] div,int i0,int i1,int j0,int j1);
+    // velocity -= 0.5*N*grad p, central differences; returns the largest |component| of the result
+    float subtractGradient(FluidEngine sim,float[] velocX,float[] velocY,float[] p,int i0,int i1,int j0,int j1);
+    // semi-Lagrangian backtrace by dt0 cells per unit velocity, bilinear sample of d0
+    void advect(FluidEngine sim,float[] d,float[] d0,float[] velocX,float[] velocY,float dt0,int i0,int i1,int j0,int j1);
+
+    // "vector" lives in vector/ and needs --add-modules jdk.incubator.vector, so it is loaded by name
+    static StencilKernels named(String name){
+        switch(name){
+            case "scalar": return new ScalarKernels();
+            case "vector": return (StencilKernels)Reflect.instantiate("VectorKernels");
+            default: throw new IllegalArgumentException("unknown stencil kernels: "+name);
+        }
+    }
+}
@@ -0,0 +1,39 @@
+import java.lang.management.ManagementFactory;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+// Per-phase timers for FluidEngine.step() and the viewer's paint, published as one MBean per
+// phase under <domain>:type=Phase,name=<phase>.
+final class StepMetrics {
+    enum Phase {
+        ACTIVE_TILES("activeTiles"), DIFFUSE_VELOCITY("diffuseVelocity"),
+        PROJECT_1("project1"), ADVECT_VX("advectVx"), ADVECT_VY("advectVy"), PROJECT_2("project2"),
+        DIFFUSE_DENSITY("diffuseDensity"), ADVECT_DENSITY("advectDensity"),
+        STEP("step"), PAINT("paint");
+
+        final String label;
+        Phase(String label){ this.label = label; }
+    }
+
+    final PhaseTimer[] timers = new PhaseTimer[Phase.values().length];
+
+    StepMetrics(){
+        for(Phase p : Phase.values()) timers[p.ordinal()] = new PhaseTimer(p.label);
+    }
+
+    void record(Phase p,long nanos){ timers[p.ordinal()].record(nanos); }
+
+    void register(String domain){
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            for(PhaseTimer t : timers){
+                ObjectName name = new ObjectName(domain+":type=Phase,name="+t.name);
+                if(server.isRegistered(name)) server.unregisterMBean(name);
+                server.registerMBean(t,name);
+            }
+        } catch(JMException e){
+            throw new IllegalStateException("cannot register phase timers under "+domain,e);
+        }
+    }
+}
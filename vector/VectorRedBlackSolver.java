@@ -0,0 +1,73 @@
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+// RedBlackSolver with the half-sweeps on the Vector API. Each vector evaluates the stencil for
+// every lane from contiguous loads, blends the lanes of the current colour into the old values
+// through an alternating mask and stores the whole vector; the other lanes are written back
+// unchanged (this half-sweep never modifies them), which avoids slow masked stores. Like
+// RedBlackSolver it sweeps only the active tiles' runs and relaxes several fields in the same sweeps.
+public class VectorRedBlackSolver implements LinearSolver {
+    static final VectorSpecies<Float> F = FloatVector.SPECIES_PREFERRED;
+    // 1, 0, 1, 0, ...: loading L lanes from offset 0 selects lanes 0, 2, 4, ..., from offset 1 the others
+    private static final float[] PATTERN = new float[F.length()+1];
+    static { for(int i=0;i<PATTERN.length;i+=2) PATTERN[i] = 1; }
+
+    @Override
+    public int solve(FluidEngine sim,int b,float[] x,float[] x0,float a,float c,int maxIter,float tol){
+        return solve(sim,new int[]{b},new float[][]{x},new float[][]{x0},a,c,maxIter,tol);
+    }
+
+    // fused as in RedBlackSolver: both colours of each band relax every field, row by row
+    @Override
+    public int solve(FluidEngine sim,int[] b,float[][] x,float[][] x0,float a,float c,int maxIter,float tol){
+        int NX = sim.NX, NY = sim.NY;
+        boolean track = tol > 0;
+        double limit = track ? tol*MultigridSolver.norm(x0,NX,NY) : -1;
+        int red = sim.row0 & 1, black = red ^ 1;     // colours by global row, as in RedBlackSolver
+        for(int k=0;k<maxIter;k++){
+            double rr = Parallel.sumRows(1,NY+1,(j0,j1) -> sweep(sim,x,x0,a,c,red,j0,j1,track))
+                      + Parallel.sumRows(1,NY+1,(j0,j1) -> sweep(sim,x,x0,a,c,black,j0,j1,track));
+            sim.setBnd(b,x);
+            if(Math.sqrt(rr) <= limit) return k+1;
+        }
+        return maxIter;
+    }
+
+    // the engine's active cells of rows [j0,j1), each row of every field before the next row
+    static double sweep(FluidEngine sim,float[][] x,float[][] x0,float a,float c,int colour,int j0,int j1,boolean track){
+        double rr = 0;
+        for(int j=j0;j<j1;j++){
+            int[] r = sim.runs(j);
+            for(int k=0;k<r.length;k+=2)
+                for(int f=0;f<x.length;f++) rr += sweepRow(x[f],x0[f],a,c,sim.NX,colour,j,r[k],r[k+1],track);
+        }
+        return rr;
+    }
+
+    // cells [i0, i1) of row j, whole vectors first and RedBlackSolver's loop for the rest. L is
+    // even, so the colour pattern repeats from vector to vector along the run.
+    static double sweepRow(float[] x,float[] x0,float a,float c,int nx,int colour,int j,int i0,int i1,boolean track){
+        int w = nx+2, L = F.length(), tail = i0 + ((i1-i0)/L)*L;
+        float invC = 1f/c;
+        double rr = 0;
+        // cell (i,j) has the colour when (i+j)%2 == colour; lane 0 is i = i0. The mask is built
+        // per row from an array load rather than picked from two constants, which would leave
+        // a phi C2 cannot keep in a register.
+        VectorMask<Float> m = FloatVector.fromArray(F,PATTERN,(i0+j+colour)&1).compare(VectorOperators.GT,0f);
+        for(int i=i0,id=j*w+i0;i<tail;i+=L,id+=L){
+            FloatVector old = FloatVector.fromArray(F,x,id);
+            FloatVector v = FloatVector.fromArray(F,x,id-1).add(FloatVector.fromArray(F,x,id+1))
+                    .add(FloatVector.fromArray(F,x,id-w)).add(FloatVector.fromArray(F,x,id+w))
+                    .mul(a).add(FloatVector.fromArray(F,x0,id)).mul(invC);
+            if(track){
+                FloatVector d = v.sub(old).mul(c);
+                rr += d.mul(d).reduceLanes(VectorOperators.ADD,m);
+            }
+            old.blend(v,m).intoArray(x,id);
+        }
+        if(tail < i1) rr += RedBlackSolver.sweepRow(x,x0,a,invC,nx,colour,j,tail,i1,track);
+        return rr;
+    }
+}